@@ -0,0 +1,137 @@
+package connect4.benchmarks;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Connect4JmhBenchmark
+ * the hot paths of the game measured by JMH: humanTurn, computerTurn, the win checks, isGameOver, newModel
+ * and saveGame, on the same fixed mid-game positions as Connect4Benchmark.POSITIONS.
+ * run "mvn package", then "java -jar benchmarks/target/benchmarks.jar -prof gc" for the time and the
+ * allocation rate of each.
+ * JMH doesn't take benchmarks in the default package, and a class in a package can't name the game's classes,
+ * so the operations come from Connect4Benchmark.operations(), looked up by name once in setUp().
+ * @author wentao
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Connect4JmhBenchmark {
+	/**
+	 * the positions, the columns played from the empty board, keep them the same as Connect4Benchmark.POSITIONS.
+	 */
+	@Param({"3324", "333324642210", "3333246422101362", "333324642210136200322544"})
+	public String moves;
+
+	private File saveFile;
+	private LongSupplier winChecks;
+	private LongSupplier gameOver;
+	private LongSupplier humanTurn;
+	private LongSupplier humanTurnListener;
+	private LongSupplier computerTurnSimple;
+	private LongSupplier computerTurnNegamax;
+	private LongSupplier saveGame;
+	private LongSupplier newModel;
+
+	/**
+	 * setUp()
+	 * get the operations of the position from the game.
+	 * @throws Exception if the game's classes can't be found
+	 */
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		saveFile = File.createTempFile("connect4-jmh", ".dat");
+		Map<String, LongSupplier> operations = (Map<String, LongSupplier>) Class.forName("Connect4Benchmark")
+				.getMethod("operations", String.class, File.class).invoke(null, moves, saveFile);
+		winChecks = get(operations, "playerWin+computerWin");
+		gameOver = get(operations, "isGameOver");
+		humanTurn = get(operations, "humanTurn");
+		humanTurnListener = get(operations, "humanTurn (move listener)");
+		computerTurnSimple = get(operations, "computerTurn (random and block)");
+		computerTurnNegamax = get(operations, "computerTurn (negamax depth 6)");
+		saveGame = get(operations, "saveGame");
+		newModel = get(operations, "refill + newModel");
+	}
+
+	/**
+	 * tearDown()
+	 * delete the file of saveGame.
+	 */
+	@TearDown
+	public void tearDown() {
+		saveFile.delete();
+	}
+
+	/**
+	 * get()
+	 * @return the operation of the name
+	 * @throws IllegalStateException if the game has no operation of the name
+	 */
+	private static LongSupplier get(Map<String, LongSupplier> operations, String name) {
+		LongSupplier operation = operations.get(name);
+		if (operation == null) {
+			throw new IllegalStateException("no operation " + name);
+		}
+		return operation;
+	}
+
+	@Benchmark
+	public long playerWinComputerWin() {
+		return winChecks.getAsLong();
+	}
+
+	@Benchmark
+	public long isGameOver() {
+		return gameOver.getAsLong();
+	}
+
+	@Benchmark
+	public long humanTurn() {
+		return humanTurn.getAsLong();
+	}
+
+	@Benchmark
+	public long humanTurnMoveListener() {
+		return humanTurnListener.getAsLong();
+	}
+
+	@Benchmark
+	public long computerTurnRandomAndBlock() {
+		return computerTurnSimple.getAsLong();
+	}
+
+	@Benchmark
+	public long computerTurnNegamaxDepth6() {
+		return computerTurnNegamax.getAsLong();
+	}
+
+	@Benchmark
+	public long saveGame() {
+		return saveGame.getAsLong();
+	}
+
+	@Benchmark
+	public long refillNewModel() {
+		return newModel.getAsLong();
+	}
+}
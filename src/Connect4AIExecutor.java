@@ -0,0 +1,152 @@
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Connect4AIExecutor
+ * picks the computer's move on a background thread, so a slow engine doesn't freeze the view.
+ * the search runs on a copy of the board, and the result comes back as a future of the move message;
+ * the view plays it with Platform.runLater when it arrives.
+ * every thread of the executor has its own engine and its own endgame solver, so a search never uses the
+ * controller's engine or solver, which the view's thread may use at the same time. of the controller, only the
+ * opening book, the metrics and the answers of the ponderer are read, and they can be read from any thread.
+ * each search has a stop token, so cancel() stops it even when the search hasn't started yet.
+ * @author wentao
+ *
+ */
+public class Connect4AIExecutor {
+	private final ExecutorService pool;
+	private final ThreadLocal<Connect4Engine> engines;
+	private final ThreadLocal<Connect4Solver> solvers = new ThreadLocal<>();
+	/**
+	 * the searches not finished yet, by their future.
+	 */
+	private final Map<CompletableFuture<Connect4MoveMessage>, Search> searches = new ConcurrentHashMap<>();
+
+	/**
+	 * one search: its stop token, and the engine and the solver while it runs, under the lock of the search.
+	 */
+	private static final class Search {
+		private final AtomicBoolean stop = new AtomicBoolean();
+		private Connect4Engine engine;
+		private Connect4Solver solver;
+	}
+
+	/**
+	 * the constructor of the executor.
+	 * @param engines makes the engine of the computer, once per thread, null for the simple random-and-block moves
+	 * @param threads the number of moves that can be searched at once
+	 */
+	public Connect4AIExecutor(Supplier<Connect4Engine> engines, int threads) {
+		this.engines = engines == null ? null : ThreadLocal.withInitial(engines);
+		pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "connect4-ai");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * submit()
+	 * start searching the computer's move of the game.
+	 * the board is copied right away, so the game can't change under the search.
+	 * @param controller the controller of the game
+	 * @return the future of the computer's move, it is not played yet
+	 */
+	public CompletableFuture<Connect4MoveMessage> submit(Connect4Controller controller) {
+		Connect4Model position = controller.getModel().copy();
+		Connect4Ponderer ponderer = controller.getPonderer();
+		Connect4OpeningBook book = controller.getOpeningBook();
+		Connect4Solver original = controller.getEndgameSolver();
+		Connect4Metrics metrics = controller.getMetrics();
+		Search search = new Search();
+		CompletableFuture<Connect4MoveMessage> move = CompletableFuture.supplyAsync(() -> {
+			Connect4Engine engine = engines == null ? null : engines.get();
+			Connect4Solver solver = solverFor(original);
+			synchronized (search) {
+				search.engine = engine;
+				search.solver = solver;
+			}
+			try {
+				Connect4Controller searcher = new Connect4Controller(position);
+				if (engine != null) {
+					engine.setStopToken(search.stop);
+					searcher.setEngine(engine);
+				}
+				if (solver != null) {
+					solver.setStopToken(search.stop);
+					searcher.setEndgameSolver(solver);
+				}
+				searcher.setPonderer(ponderer);
+				searcher.setOpeningBook(book);
+				searcher.setMetrics(metrics);
+				int column = searcher.chooseComputerColumn();
+				return new Connect4MoveMessage(position.getDropRow(column), column, Color.RED);
+			} finally {
+				synchronized (search) { // a late cancel() must not stop the next search of the thread
+					search.engine = null;
+					search.solver = null;
+				}
+			}
+		}, pool);
+		searches.put(move, search);
+		move.whenComplete((message, error) -> searches.remove(move));
+		return move;
+	}
+
+	/**
+	 * solverFor()
+	 * @param original the endgame solver of the controller, may be null
+	 * @return the solver of the thread made like the original, it is kept while the original doesn't change
+	 */
+	private Connect4Solver solverFor(Connect4Solver original) {
+		if (original == null) {
+			return null;
+		}
+		Connect4Solver solver = solvers.get();
+		if (solver == null || solver.getMaxEmpty() != original.getMaxEmpty()
+				|| solver.getDatabase() != original.getDatabase()) {
+			solver = new Connect4Solver(original.getMaxEmpty(), original.getDatabase());
+			solvers.set(solver);
+		}
+		return solver;
+	}
+
+	/**
+	 * cancel()
+	 * drop a move that is no longer wanted, e.g. when a new game starts.
+	 * its search is stopped, so the thread is free for the next move soon.
+	 * @param move the future returned by submit(), may be null
+	 */
+	public void cancel(CompletableFuture<Connect4MoveMessage> move) {
+		if (move == null) {
+			return;
+		}
+		Search search = searches.get(move);
+		if (move.cancel(false) && search != null) {
+			search.stop.set(true);
+			synchronized (search) {
+				if (search.engine != null) {
+					search.engine.stop();
+				}
+				if (search.solver != null) {
+					search.solver.stop();
+				}
+			}
+		}
+	}
+
+	/**
+	 * shutdown()
+	 * stop the threads, the executor can't be used after that.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
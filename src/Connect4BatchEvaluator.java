@@ -0,0 +1,217 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Connect4BatchEvaluator
+ * evaluates many standard boards at once. nothing in the game uses it yet: the engines and the server look at
+ * one board at a time, and main() only compares the evaluators.
+ * the boards come as two arrays of bitboards, one long per board for each player (structure of arrays),
+ * and the results go to arrays too: who has a line, the places where each player would finish a line,
+ * and the score of the board for X, the same guess as the negamax engine at the end of its search.
+ * this class goes through the boards one by one; create() gives the Connect4VectorEvaluator instead,
+ * which does several boards per instruction with the Vector API, when the jdk.incubator.vector module is there.
+ * @author wentao
+ *
+ */
+public class Connect4BatchEvaluator {
+	/**
+	 * the flags of the wins.
+	 */
+	public static final int X_WINS = 1;
+	public static final int O_WINS = 2;
+
+	/**
+	 * the places of the center column, the tokens there count in the score.
+	 */
+	static final long CENTER = ((1L << Connect4Model.BOARD_ROW) - 1)
+			<< (Connect4Model.BOARD_COLUMN / 2 * Connect4Model.HEIGHT);
+
+	/**
+	 * how many boards main() evaluates with each path before timing it, the vector path runs interpreted
+	 * very slowly at first and only gets fast once the JIT has compiled it, after a second or two.
+	 */
+	private static final long WARM_UP_BOARDS = 50000000L;
+
+	/**
+	 * create()
+	 * @return the vector evaluator if the Vector API can be used, e.g. with "--add-modules jdk.incubator.vector",
+	 * otherwise this one
+	 */
+	public static Connect4BatchEvaluator create() {
+		try {
+			// loaded by name, so the rest of the game runs without the incubator module
+			return (Connect4BatchEvaluator) Class.forName("Connect4VectorEvaluator").getDeclaredConstructor()
+					.newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return new Connect4BatchEvaluator();
+		}
+	}
+
+	/**
+	 * getName()
+	 * @return the name of the evaluator and how many boards it does at once
+	 */
+	public String getName() {
+		return "scalar";
+	}
+
+	/**
+	 * evaluate()
+	 * evaluate the first count boards.
+	 * @param x the bitboards of the human's tokens, see Connect4Model.getXBoard()
+	 * @param o the bitboards of the computer's tokens
+	 * @param count the number of boards
+	 * @param wins gets X_WINS and O_WINS for each board
+	 * @param xThreats gets the number of empty places where X would finish a line
+	 * @param oThreats gets the number of empty places where O would finish a line
+	 * @param scores gets the score of each board for X: the win score if X has a line, minus it if O has one,
+	 * otherwise 16 per threat and 2 per token in the center more than O
+	 */
+	public void evaluate(long[] x, long[] o, int count, int[] wins, int[] xThreats, int[] oThreats, int[] scores) {
+		checkSizes(x, o, count, wins, xThreats, oThreats, scores);
+		evaluate(x, o, 0, count, wins, xThreats, oThreats, scores);
+	}
+
+	/**
+	 * evaluate()
+	 * evaluate the boards from start to end one by one, the vector evaluator uses it for the last few.
+	 */
+	static void evaluate(long[] x, long[] o, int start, int end, int[] wins, int[] xThreats, int[] oThreats,
+			int[] scores) {
+		for (int i = start; i < end; i++) {
+			long mask = x[i] | o[i];
+			int xt = Long.bitCount(Connect4Model.winningCells(x[i], mask));
+			int ot = Long.bitCount(Connect4Model.winningCells(o[i], mask));
+			boolean xWins = Connect4Model.isWin(x[i]);
+			boolean oWins = Connect4Model.isWin(o[i]);
+			xThreats[i] = xt;
+			oThreats[i] = ot;
+			wins[i] = (xWins ? X_WINS : 0) | (oWins ? O_WINS : 0);
+			scores[i] = xWins ? Connect4NegamaxEngine.WIN_SCORE : oWins ? -Connect4NegamaxEngine.WIN_SCORE
+					: 16 * (xt - ot) + 2 * (Long.bitCount(x[i] & CENTER) - Long.bitCount(o[i] & CENTER));
+		}
+	}
+
+	/**
+	 * checkSizes()
+	 * @throws IllegalArgumentException if an array is shorter than count
+	 */
+	static void checkSizes(long[] x, long[] o, int count, int[] wins, int[] xThreats, int[] oThreats,
+			int[] scores) {
+		if (count < 0 || x.length < count || o.length < count || wins.length < count || xThreats.length < count
+				|| oThreats.length < count || scores.length < count) {
+			throw new IllegalArgumentException("the arrays should hold " + count + " boards");
+		}
+	}
+
+	/**
+	 * main()
+	 * compare the boards per second of the model's static checks on one board at a time,
+	 * of this evaluator and of create(), on random boards reached by random games.
+	 * every path first evaluates WARM_UP_BOARDS boards, so the JIT has compiled it before it is timed.
+	 * run it with "java --add-modules jdk.incubator.vector Connect4BatchEvaluator [boards] [rounds]".
+	 * @param args the number of boards, 4096 by default, and the rounds, 2000 by default
+	 */
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		long[] x = new long[count];
+		long[] o = new long[count];
+		SplittableRandom random = new SplittableRandom(42);
+		Connect4Model model = new Connect4Model();
+		for (int i = 0; i < count; i++) {
+			model.clear();
+			int moves = random.nextInt(Connect4Model.BOARD_ROW * Connect4Model.BOARD_COLUMN);
+			for (int m = 0; m < moves && !model.xWins() && !model.oWins(); m++) {
+				int column = random.nextInt(Connect4Model.BOARD_COLUMN);
+				if (model.canPlay(column)) {
+					if (model.isXTurn()) {
+						model.placeX(model.getDropRow(column), column);
+					} else {
+						model.placeO(model.getDropRow(column), column);
+					}
+				}
+			}
+			x[i] = model.getXBoard();
+			o[i] = model.getOBoard();
+		}
+		int[] wins = new int[count];
+		int[] xThreats = new int[count];
+		int[] oThreats = new int[count];
+		int[] scores = new int[count];
+		Connect4BatchEvaluator scalar = new Connect4BatchEvaluator();
+		Connect4BatchEvaluator best = create();
+
+		long sink = 0;
+		for (long r = warmUpRounds(count); r > 0; r--) {
+			sink += oneByOne(x, o, count);
+		}
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			sink += oneByOne(x, o, count);
+		}
+		long oneNanos = System.nanoTime() - start;
+		long scalarNanos = time(scalar, x, o, count, rounds, wins, xThreats, oThreats, scores);
+		long bestNanos = time(best, x, o, count, rounds, wins, xThreats, oThreats, scores);
+		double boards = (double) count * rounds;
+		System.out.printf(Locale.ROOT, "one board at a time           %8.1f M boards/s%n", boards / oneNanos * 1e3);
+		System.out.printf(Locale.ROOT, "batch, scalar                 %8.1f M boards/s, %.1fx%n",
+				boards / scalarNanos * 1e3, (double) oneNanos / scalarNanos);
+		System.out.printf(Locale.ROOT, "batch, %-22s %8.1f M boards/s, %.1fx, %.1fx the scalar batch%n",
+				best.getName(), boards / bestNanos * 1e3, (double) oneNanos / bestNanos,
+				(double) scalarNanos / bestNanos);
+		int[][] check = new int[4][count];
+		best.evaluate(x, o, count, check[0], check[1], check[2], check[3]);
+		scalar.evaluate(x, o, count, wins, xThreats, oThreats, scores);
+		boolean agree = Arrays.equals(check[0], wins) && Arrays.equals(check[1], xThreats)
+				&& Arrays.equals(check[2], oThreats) && Arrays.equals(check[3], scores);
+		System.out.println(agree ? "the evaluators agree" : "the evaluators DISAGREE");
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * warmUpRounds()
+	 * @return the rounds of count boards that make WARM_UP_BOARDS
+	 */
+	private static long warmUpRounds(int count) {
+		return (WARM_UP_BOARDS + count - 1) / Math.max(count, 1);
+	}
+
+	/**
+	 * oneByOne()
+	 * the baseline: the wins, the threats and the center tokens of each board with the model's static checks,
+	 * one board at a time and without the arrays of the results.
+	 * @return the sum of the results, so the JIT can't drop the calls
+	 */
+	private static long oneByOne(long[] x, long[] o, int count) {
+		long sum = 0;
+		for (int i = 0; i < count; i++) {
+			long mask = x[i] | o[i];
+			sum += (Connect4Model.isWin(x[i]) ? X_WINS : 0) + (Connect4Model.isWin(o[i]) ? O_WINS : 0)
+					+ Long.bitCount(Connect4Model.winningCells(x[i], mask))
+					+ Long.bitCount(Connect4Model.winningCells(o[i], mask))
+					+ Long.bitCount(x[i] & CENTER) - Long.bitCount(o[i] & CENTER);
+		}
+		return sum;
+	}
+
+	/**
+	 * time()
+	 * warm the evaluator up, then time it.
+	 * @return the nanoseconds the evaluator takes for the rounds
+	 */
+	private static long time(Connect4BatchEvaluator evaluator, long[] x, long[] o, int count, int rounds,
+			int[] wins, int[] xThreats, int[] oThreats, int[] scores) {
+		for (long r = warmUpRounds(count); r > 0; r--) {
+			evaluator.evaluate(x, o, count, wins, xThreats, oThreats, scores);
+		}
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			evaluator.evaluate(x, o, count, wins, xThreats, oThreats, scores);
+		}
+		return System.nanoTime() - start;
+	}
+}
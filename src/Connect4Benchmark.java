@@ -0,0 +1,226 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Connect4Benchmark
+ * measures the hot paths of the game: humanTurn, computerTurn, the win checks, isGameOver, newModel and saveGame.
+ * humanTurn is also measured with a move listener, a move should then allocate nothing.
+ * every benchmark runs on fixed mid-game positions, so the numbers of two runs can be compared,
+ * and reports the time and the heap allocated per operation, the way "-prof gc" would.
+ * run it with "java Connect4Benchmark [iterations]", the numbers should only be compared on the same machine.
+ * the same operations are measured by JMH in the benchmarks module of the Maven build, through operations().
+ * @author wentao
+ *
+ */
+public class Connect4Benchmark {
+	/**
+	 * the positions, given as the columns played from the empty board, X first.
+	 * none of them is won yet and they are all reached in real games.
+	 */
+	static final String[] POSITIONS = {
+			"3324",                     // opening
+			"333324642210",             // early middle game
+			"3333246422101362",         // middle game
+			"333324642210136200322544", // late middle game
+	};
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final int iterations;
+	private long sink;
+
+	/**
+	 * the constructor of the benchmark.
+	 * @param iterations how many times every operation is run after the warm up
+	 */
+	public Connect4Benchmark(int iterations) {
+		this.iterations = iterations;
+	}
+
+	/**
+	 * position()
+	 * play the columns of a position through the model.
+	 * @param moves the columns played from the empty board
+	 * @return the model with the position
+	 */
+	static Connect4Model position(String moves) {
+		Connect4Model model = new Connect4Model();
+		for (int i = 0; i < moves.length(); i++) {
+			int column = moves.charAt(i) - '0';
+			if (model.isXTurn()) {
+				model.placeX(model.getDropRow(column), column);
+			} else {
+				model.placeO(model.getDropRow(column), column);
+			}
+		}
+		if (model.xWins() || model.oWins()) {
+			throw new IllegalStateException("the position " + moves + " is already won");
+		}
+		return model;
+	}
+
+	/**
+	 * operations()
+	 * the operations to measure on a position, each with its own model and controller, so they can be run
+	 * alone and in any order. an operation leaves its model as it found it, e.g. humanTurn takes its move back.
+	 * it is public for the JMH benchmarks, which are in a package and can't use these classes directly.
+	 * @param moves the columns played from the empty board, see POSITIONS
+	 * @param saveFile the file saveGame writes to
+	 * @return the operations by name, in the order they are printed, each returns a value to keep alive
+	 */
+	public static Map<String, LongSupplier> operations(String moves, File saveFile) {
+		Map<String, LongSupplier> operations = new LinkedHashMap<>();
+		Connect4Controller checks = new Connect4Controller(position(moves));
+		operations.put("playerWin+computerWin", () -> (checks.playerWin() ? 1 : 0) + (checks.computerWin() ? 2 : 0));
+		operations.put("isGameOver", () -> checks.isGameOver() ? 1 : 0);
+
+		Connect4Model human = position(moves);
+		int humanColumn = quietColumn(human);
+		operations.put("humanTurn", humanTurn(human, humanColumn));
+		Connect4Model listened = position(moves);
+		long[] heard = new long[1];
+		listened.addMoveListener(move -> heard[0] += move);
+		operations.put("humanTurn (move listener)", humanTurn(listened, humanColumn));
+
+		Connect4Model simple = position(moves);
+		simple.placeX(simple.getDropRow(humanColumn), humanColumn);
+		operations.put("computerTurn (random and block)", computerTurn(new Connect4Controller(simple)));
+		Connect4Model searched = position(moves);
+		searched.placeX(searched.getDropRow(humanColumn), humanColumn);
+		Connect4Controller negamax = new Connect4Controller(searched);
+		negamax.setEngine(new Connect4NegamaxEngine(6));
+		operations.put("computerTurn (negamax depth 6)", computerTurn(negamax));
+
+		Connect4Controller saved = new Connect4Controller(position(moves));
+		operations.put("saveGame", () -> {
+			try {
+				saved.saveGame(saveFile.getPath());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return saveFile.length();
+		});
+		Connect4Model scratch = new Connect4Model();
+		Connect4Controller newGame = new Connect4Controller(scratch);
+		operations.put("refill + newModel", () -> {
+			for (int i = 0; i < moves.length(); i++) {
+				scratch.makeMove(moves.charAt(i) - '0');
+			}
+			newGame.newModel();
+			return scratch.getMoveCount();
+		});
+		return operations;
+	}
+
+	/**
+	 * humanTurn()
+	 * @return the operation that plays the human's move and takes it back
+	 */
+	private static LongSupplier humanTurn(Connect4Model model, int column) {
+		Connect4Controller controller = new Connect4Controller(model);
+		return () -> {
+			try {
+				controller.humanTurn(column);
+			} catch (Connect4IllegalColumnException | Connect4FullColumnException e) {
+				throw new IllegalStateException(e);
+			}
+			model.undo();
+			return model.getMoveCount();
+		};
+	}
+
+	/**
+	 * computerTurn()
+	 * @return the operation that plays the computer's move and takes it back
+	 */
+	private static LongSupplier computerTurn(Connect4Controller controller) {
+		Connect4Model model = controller.getModel();
+		return () -> {
+			controller.computerTurn();
+			int column = model.getLastColumn();
+			model.undo();
+			return column;
+		};
+	}
+
+	/**
+	 * measure()
+	 * run the operation to warm up the JIT, then run it again and print the time and the bytes allocated per run.
+	 * @param name the name of the benchmark
+	 * @param operation the operation to measure
+	 */
+	private void measure(String name, LongSupplier operation) {
+		for (int i = 0; i < iterations; i++) {
+			sink += operation.getAsLong();
+		}
+		long thread = Thread.currentThread().getId();
+		long bytes = THREADS.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			sink += operation.getAsLong();
+		}
+		long nanos = System.nanoTime() - start;
+		bytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+		System.out.printf(Locale.ROOT, "%-36s %12.1f ns/op %10.1f B/op%n", name,
+				(double) nanos / iterations, (double) bytes / iterations);
+	}
+
+	/**
+	 * runAll()
+	 * run every benchmark on every position.
+	 * @throws IOException if the save file can't be created
+	 */
+	public void runAll() throws IOException {
+		File saveFile = File.createTempFile("connect4-bench", ".dat");
+		saveFile.deleteOnExit();
+		for (String moves : POSITIONS) {
+			String tag = " [" + moves.length() + "]";
+			for (Map.Entry<String, LongSupplier> operation : operations(moves, saveFile).entrySet()) {
+				measure(operation.getKey() + tag, operation.getValue());
+			}
+		}
+		if (sink == 42) {
+			System.out.println(); // keeps the results of the checks alive
+		}
+	}
+
+	/**
+	 * quietColumn()
+	 * @param model the model of the position
+	 * @return the first column where X can play without winning, so the move can be taken back,
+	 * and after which the computer can neither win nor has to block, so its engine really searches
+	 */
+	static int quietColumn(Connect4Model model) {
+		for (int column = 0; column < Connect4Model.BOARD_COLUMN; column++) {
+			if (model.canPlay(column) && !model.isWinningMove(column)) {
+				model.makeMove(column);
+				boolean quiet = true;
+				for (int reply = 0; reply < Connect4Model.BOARD_COLUMN && quiet; reply++) {
+					quiet = !model.canPlay(reply) || (!model.isWinningMove(reply) && !model.isBlockingMove(reply));
+				}
+				model.unmakeMove(column);
+				if (quiet) {
+					return column;
+				}
+			}
+		}
+		throw new IllegalStateException("no quiet move");
+	}
+
+	/**
+	 * main() method
+	 * @param args the number of iterations per benchmark, optional
+	 * @throws IOException if the save file can't be created
+	 */
+	public static void main(String[] args) throws IOException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		new Connect4Benchmark(iterations).runAll();
+	}
+}
@@ -1,10 +1,10 @@
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.Random;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Connect4Controller: the controller of the game, it manipulates the model in response to actions from the view.
@@ -14,30 +14,98 @@ import java.util.Random;
  *
  */
 public class Connect4Controller {
+	/**
+	 * the engine used by computerTurn(long) when none was set: it searches as deep as the time allows.
+	 */
+	private static final int DEFAULT_MAX_DEPTH = 42;
+	private static final int DEFAULT_TABLE_MB = 16;
+	/**
+	 * the file the unfinished game is saved to.
+	 */
+	public static final String SAVE_FILE = "save_game.dat";
+	/**
+	 * the log of the moves made since the save file was last written.
+	 */
+	public static final String LOG_FILE = "save_game.log";
+	/**
+	 * the record of every game played, see Connect4GameLog.
+	 */
+	public static final String GAME_LOG_FILE = "games.log";
 	private Connect4Model model = null;
+	private Connect4Engine engine = null;
+	private Connect4SaveWriter saveWriter = null;
+	private Connect4Ponderer ponderer = null;
+	private Connect4OpeningBook book = null;
+	private Connect4Solver solver = null;
+	private Connect4GameLog gameLog = null;
+	private boolean gameLogPending = false;
+	private Connect4Metrics metrics = null;
+	private Connect4Histogram humanTurnTime = null;
+	private Connect4Histogram computerTurnTime = null;
+	private Connect4Histogram winCheckTime = null;
+	private Connect4Histogram saveTime = null;
+	private LongAdder moveCounter = null;
+	/**
+	 * the time the constructor took to read the saved game, recorded when the metrics are set.
+	 */
+	private long loadNanos = 0;
+	/**
+	 * the counter of where the last computer's column came from, see Connect4Metrics.
+	 */
+	private String source = null;
 	
 	
 	/**
 	 * the constructor of the controller class. 
 	 * set the model variable.
-	 * read in the save_game.dat file if it exists, otherwise create a new model.
-	 * @param model the model passed in.
+	 * read in the save_game.dat file and the moves logged after it if they exist, otherwise create a new model.
 	 */
 	public Connect4Controller() {
+		this(Connect4Model.BOARD_ROW, Connect4Model.BOARD_COLUMN, Connect4Model.CONNECT);
+	}
+	
+	/**
+	 * the constructor of the controller for a board of any size.
+	 * the saved game is read back if it was played on a board of that size, otherwise a new game starts.
+	 * @param rows the number of rows
+	 * @param columns the number of columns
+	 * @param connect the number of tokens in a line that wins
+	 */
+	public Connect4Controller(int rows, int columns, int connect) {
+		long start = System.nanoTime();
+		Connect4Model empty = new Connect4Model(rows, columns, connect);
 		try {
-			FileInputStream fis = new FileInputStream("save_game.dat"); //read in the saved file
-			ObjectInputStream ois = new ObjectInputStream(fis);
-			this.model = (Connect4Model) ois.readObject(); // the model is the saved one
-			ois.close();
+			this.model = Connect4SaveWriter.recover(Paths.get(SAVE_FILE), Paths.get(LOG_FILE), empty); // the model is the saved one
 		}
 		catch (IOException e){
 			System.out.println("There is no saved game");
-		} catch (ClassNotFoundException e) {
-			System.out.println("");
+		}
+		if (this.model != null && (model.getRows() != rows || model.getColumns() != columns
+				|| model.getConnect() != connect)) {
+			System.out.println("The saved game is for another board size");
+			this.model = null;
 		}
 			if (this.model == null) {
-				this.model = new Connect4Model(); 
+				this.model = empty; 
 		}
+		loadNanos = System.nanoTime() - start;
+	}
+	
+	/**
+	 * the constructor of the controller for a given model.
+	 * it doesn't read or write any file, so many games can be run without the view, e.g. by the simulator.
+	 * @param model the model of the game
+	 */
+	public Connect4Controller(Connect4Model model) {
+		this.model = model;
+	}
+	
+	/**
+	 * getModel()
+	 * @return the model of the game
+	 */
+	public Connect4Model getModel() {
+		return model;
 	}
 	
 	/**
@@ -46,13 +114,199 @@ public class Connect4Controller {
 	 * need it when the user click the "new game" menu
 	 */
 	public void newModel() {
-		for (int i =0; i<getRows();i++) {
-			for (int j =0; j<getCols();j++) {
-				this.model.setVal(i, j, "_");
+		if (ponderer != null) {
+			ponderer.stop();
+		}
+		endGameLog();
+		this.model.clear();
+		if (saveWriter != null) {
+			saveWriter.reset();
+		}
+	}
+	
+	/**
+	 * startAutosave()
+	 * save the game in the background after every move, see Connect4SaveWriter.
+	 */
+	public void startAutosave() {
+		if (saveWriter == null) {
+			saveWriter = new Connect4SaveWriter(Paths.get(SAVE_FILE), Paths.get(LOG_FILE), model);
+			model.addMoveListener(saveWriter);
+		}
+	}
+	
+	/**
+	 * deleteSave()
+	 * the game is over, delete the saved game in the background.
+	 */
+	public void deleteSave() {
+		if (saveWriter != null) {
+			saveWriter.reset();
+		}
+	}
+	
+	/**
+	 * closeSave()
+	 * the user exits: the background writer saves the game if it is in the process and then stops.
+	 * it doesn't wait for the disk.
+	 */
+	public void closeSave() {
+		if (saveWriter != null) {
+			model.removeMoveListener(saveWriter);
+			saveWriter.close();
+			saveWriter = null;
+		}
+	}
+	
+	/**
+	 * startGameLog()
+	 * record every game into the log, see Connect4GameLog.
+	 * a game that was already started, e.g. a saved one, is not recorded since its first moves are unknown,
+	 * the recording starts with the next game.
+	 * the log only knows the standard board, games on other boards are not recorded.
+	 * @param path the file of the log
+	 * @throws IOException if the log can't be opened
+	 */
+	public void startGameLog(Path path) throws IOException {
+		if (gameLog == null && model.isStandard()) {
+			gameLog = new Connect4GameLog(path);
+			gameLogPending = model.getMoveCount() > 0;
+			if (!gameLogPending) {
+				model.addMoveListener(gameLog);
+			}
+		}
+	}
+	
+	/**
+	 * closeGameLog()
+	 * record the game being played and close the log.
+	 */
+	public void closeGameLog() {
+		if (gameLog != null) {
+			model.removeMoveListener(gameLog);
+			try {
+				gameLog.close();
+			} catch (IOException e) {
+				System.out.println("unable to save");
+			}
+			gameLog = null;
+		}
+	}
+	
+	/**
+	 * endGameLog()
+	 * the game ends or is left for a new one: write its record and record the next game.
+	 */
+	private void endGameLog() {
+		if (gameLog != null) {
+			try {
+				gameLog.endGame();
+				gameLog.flush();
+			} catch (IOException e) {
+				System.out.println("unable to save");
+			}
+			if (gameLogPending) {
+				model.addMoveListener(gameLog);
+				gameLogPending = false;
+			}
+		}
+	}
+	
+	/**
+	 * setEngine()
+	 * let the computer use a search engine for its moves.
+	 * @param engine the engine to use, null to go back to the simple random-and-block moves
+	 */
+	public void setEngine(Connect4Engine engine) {
+		this.engine = engine;
+	}
+	
+	/**
+	 * setMetrics()
+	 * count the moves and time the turns, the win checks and the saves of the game,
+	 * along with the numbers of the AI's searches, and commit a Connect4MoveEvent for every move.
+	 * the time the constructor took to read the saved game is recorded the first time.
+	 * @param metrics the metrics to fill, may be shared by several controllers, null to stop measuring
+	 */
+	public void setMetrics(Connect4Metrics metrics) {
+		this.metrics = metrics;
+		if (metrics != null) {
+			humanTurnTime = metrics.histogram(Connect4Metrics.HUMAN_TURN);
+			computerTurnTime = metrics.histogram(Connect4Metrics.COMPUTER_TURN);
+			winCheckTime = metrics.histogram(Connect4Metrics.WIN_CHECK);
+			saveTime = metrics.histogram(Connect4Metrics.SAVE_GAME);
+			moveCounter = metrics.counter(Connect4Metrics.MOVES);
+			if (loadNanos > 0) {
+				metrics.record(Connect4Metrics.LOAD, loadNanos);
+				loadNanos = 0;
 			}
 		}
 	}
 	
+	/**
+	 * getMetrics()
+	 * @return the metrics of the game, null if it isn't measured
+	 */
+	public Connect4Metrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * setOpeningBook()
+	 * let the computer play the moves of the book in the first positions of the game, without searching.
+	 * @param book the opening book, null to always search
+	 */
+	public void setOpeningBook(Connect4OpeningBook book) {
+		this.book = book;
+	}
+	
+	/**
+	 * getOpeningBook()
+	 * @return the opening book, null if there is none
+	 */
+	public Connect4OpeningBook getOpeningBook() {
+		return book;
+	}
+	
+	/**
+	 * setEndgameSolver()
+	 * let the computer play perfectly once the board has few empty places, see Connect4Solver.canSolve().
+	 * @param solver the endgame solver, null to always use the engine
+	 */
+	public void setEndgameSolver(Connect4Solver solver) {
+		this.solver = solver;
+	}
+	
+	/**
+	 * getEndgameSolver()
+	 * @return the endgame solver, null if there is none
+	 */
+	public Connect4Solver getEndgameSolver() {
+		return solver;
+	}
+	
+	/**
+	 * setPonderer()
+	 * let the computer search the human's replies while the human thinks, see Connect4Ponderer.
+	 * it starts after every computer's move and stops at the human's move, whose answer is then played
+	 * right away if it was found.
+	 * @param ponderer the ponderer, made for the engine, null to stop pondering
+	 */
+	public void setPonderer(Connect4Ponderer ponderer) {
+		if (this.ponderer != null && this.ponderer != ponderer) {
+			this.ponderer.stop();
+		}
+		this.ponderer = ponderer;
+	}
+	
+	/**
+	 * getPonderer()
+	 * @return the ponderer, null if the computer doesn't ponder
+	 */
+	public Connect4Ponderer getPonderer() {
+		return ponderer;
+	}
+	
 	/**
 	 * addObserver()
 	 * add the observer to the model.
@@ -62,12 +316,21 @@ public class Connect4Controller {
 		model.addObserver(view);
 	}
 	
+	/**
+	 * addMoveListener()
+	 * add a listener of the moves to the model, it doesn't cost an object per move like an observer.
+	 * @param listener the listener
+	 */
+	public void addMoveListener(Connect4MoveListener listener) {
+		model.addMoveListener(listener);
+	}
+	
 	/**
 	 * getRow()
 	 * @return the row # of the board
 	 */
 	public int getRows() {
-		return model.BOARD_ROW;
+		return model.getRows();
 	}
 	
 	/**
@@ -75,7 +338,7 @@ public class Connect4Controller {
 	 * @return the column # of the board
 	 */
 	public int getCols() {
-		return model.BOARD_COLUMN;
+		return model.getColumns();
 	}
 	
 	/**
@@ -85,16 +348,27 @@ public class Connect4Controller {
 	 * @throws IOException throw this exception if can't read in the file
 	 */
 	public void saveGame() throws FileNotFoundException, IOException {
+		saveGame(SAVE_FILE);
+	}
+	
+	/**
+	 * saveGame()
+	 * save the game to the given file.
+	 * @param fileName the file to write
+	 * @throws FileNotFoundException throw the exception when not file found
+	 * @throws IOException throw this exception if can't read in the file
+	 */
+	public void saveGame(String fileName) throws FileNotFoundException, IOException {
+		long start = metrics != null ? System.nanoTime() : 0;
 		try {
-			FileOutputStream out = new FileOutputStream("save_game.dat");
-			ObjectOutputStream oos = new ObjectOutputStream(out); // write out the saved model statue
-			oos.writeObject(this.model);
-			oos.close();
-			out.close();
+			Connect4SaveFile.write(this.model, Paths.get(fileName)); // write out the saved model statue
 		}
 		catch(IOException e) {
 			System.out.println("unable to save");
 		}
+		if (metrics != null) {
+			saveTime.record(System.nanoTime() - start);
+		}
 	}
 	
 	/**
@@ -107,72 +381,314 @@ public class Connect4Controller {
 	 * @throws Connect4FullColumnException throws the Exception Connect4FullColumnException when necessary
 	 */
 	public void humanTurn(int column) throws Connect4IllegalColumnException, Connect4FullColumnException{
-		if (column > 6 || column < 0) {
-			throw new Connect4IllegalColumnException("invalid column, the value of column should be integer and between 0 and 6.");
+		long start = metrics != null ? System.nanoTime() : 0;
+		if (column >= model.getColumns() || column < 0) {
+			throw new Connect4IllegalColumnException("invalid column, the value of column should be integer and between 0 and "
+					+ (model.getColumns() - 1) + ".");
 		}
-		int row = 5;
-		while (!model.getAtLocation(row, column).equals("_")) {
-			row -= 1;
-			if (row < 0) {
-				throw new Connect4FullColumnException("column is full");
-			} // move up until the empty place.
+		if (model.isColumnFull(column)) {
+			throw new Connect4FullColumnException("column is full");
+		}
+		model.placeX(model.getDropRow(column), column);
+		if (ponderer != null) {
+			ponderer.stop(); // the answer was found or the table is warm, the computer searches now
+		}
+		if (metrics != null) {
+			long nanos = System.nanoTime() - start;
+			humanTurnTime.record(nanos);
+			moveCounter.increment();
+			Connect4MoveEvent.commit("X", column, model.getMoveCount(), null, nanos);
 		}
-		model.placeX(row, column);
 	}
 	
 	/**
 	 * computerTurn(): we call this function when it is computer's turn to put the token
-	 * it basically put the token at random column.
+	 * it asks the engine for the column if there is one, otherwise it basically put the token at random column.
 	 * @throws Connect4IllegalColumnException  throws the Connect4IllegalColumnException when necessary
 	 * @throws Connect4FullColumnException throws the Exception Connect4FullColumnException when necessary
 	 */
 	public void computerTurn(){
-		if(!(threeInRow() || threeInCol())) {
-			int row = 5;
-			Random rand = new Random();
-			int column = rand.nextInt(model.BOARD_COLUMN);
+		placeComputerMove(chooseComputerColumn());
+	}
+	
+	/**
+	 * chooseComputerColumn()
+	 * pick the computer's column without playing it, so it can be done away from the view's thread.
+	 * the book, the solver and the engines that only know the standard board are skipped on other boards.
+	 * with metrics, the time it takes is the computer's turn time.
+	 * @return the column the computer wants to play
+	 */
+	public int chooseComputerColumn() {
+		if (metrics == null) {
+			return pickColumn();
+		}
+		long start = System.nanoTime();
+		int column = pickColumn();
+		long nanos = System.nanoTime() - start;
+		computerTurnTime.record(nanos);
+		metrics.count(source, 1);
+		if (source == Connect4Metrics.ENGINE_MOVES) {
+			engine.addStats(metrics);
+		} else if (source == Connect4Metrics.SOLVER_MOVES) {
+			solver.addStats(metrics);
+		}
+		Connect4MoveEvent.commit("O", column, model.getMoveCount() + 1, source, nanos);
+		return column;
+	}
+	
+	/**
+	 * pickColumn()
+	 * the work of chooseComputerColumn(), it keeps where the column came from in source.
+	 * @return the column the computer wants to play
+	 */
+	private int pickColumn() {
+		if (!model.isStandard()) {
+			if (engine != null && engine.supports(model)) {
+				source = Connect4Metrics.ENGINE_MOVES;
+				return engine.bestMove(model);
+			}
+			source = Connect4Metrics.SIMPLE_MOVES;
+			return simpleColumn();
+		}
+		if (book != null) {
+			int column = book.lookup(model);
+			if (column != -1 && model.canPlay(column)) {
+				source = Connect4Metrics.BOOK_MOVES;
+				return column;
+			}
+		}
+		if (solver != null && solver.canSolve(model)) {
+			int column = solver.bestMove(model);
+			if (column != -1) {
+				source = Connect4Metrics.SOLVER_MOVES;
+				return column; // a perfect move of the endgame
+			}
+		}
+		if (ponderer != null) {
+			int column = ponderer.answer(model);
+			if (column != -1 && model.canPlay(column)) {
+				source = Connect4Metrics.PONDER_MOVES;
+				return column; // searched while the human was thinking
+			}
+		}
+		if (engine != null) {
+			source = Connect4Metrics.ENGINE_MOVES;
+			return engine.bestMove(model);
+		}
+		source = Connect4Metrics.SIMPLE_MOVES;
+		return simpleColumn();
+	}
+	
+	/**
+	 * simpleColumn()
+	 * the computer's move without an engine: win or block if it can, otherwise a random column.
+	 * @return the column the computer wants to play
+	 */
+	private int simpleColumn() {
+		int column;
+		if (model.getConnect() == Connect4Model.CONNECT) {
+			column = threeInRow();
+			if (column == -1) {
+				column = threeInCol();
+			}
+		} else {
+			column = winOrBlock();
+		}
+		if (column == -1) {
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			column = rand.nextInt(model.getColumns());
 			while(fullCol(column)) {
-				column = rand.nextInt(model.BOARD_COLUMN);
+				column = rand.nextInt(model.getColumns());
 			}
-			while (!model.getAtLocation(row, column).equals("_")) {
-				row--;
+		}
+		return column;
+	}
+	
+	/**
+	 * winOrBlock()
+	 * the simple moves for any length of line: a column that wins, otherwise a column that blocks a win.
+	 * @return the column, -1 if there is none
+	 */
+	private int winOrBlock() {
+		int block = -1;
+		for (int column = 0; column < model.getColumns(); column++) {
+			if (model.canPlay(column)) {
+				if (model.isWinningMove(column)) {
+					return column;
+				}
+				if (block == -1 && model.isBlockingMove(column)) {
+					block = column;
+				}
 			}
-			model.placeO(row, column);
+		}
+		return block;
+	}
+	
+	/**
+	 * placeComputerMove()
+	 * put the computer's token in the column, e.g. once the AI executor has picked it.
+	 * @param column the column picked for the computer
+	 */
+	public void placeComputerMove(int column) {
+		model.placeO(getRow(column), column);
+		if (metrics != null) {
+			moveCounter.increment();
+		}
+		if (ponderer != null && model.isStandard() && !isGameOver()) {
+			ponderer.start(model);
 		}
 	}
 	
+	/**
+	 * undo()
+	 * take back the human's last move and the computer's answer to it, so it is the human's turn again.
+	 * each move taken back is one undo() of the model, see Connect4Model.undo().
+	 * @return the number of moves taken back, 0 if there was none
+	 */
+	public int undo() {
+		if (ponderer != null) {
+			ponderer.stop();
+		}
+		int undone = 0;
+		while (model.canUndo() && (undone == 0 || !model.isXTurn())) {
+			model.undo();
+			undone++;
+		}
+		return undone;
+	}
+	
+	/**
+	 * redo()
+	 * play again the human's move taken back by undo() and the computer's answer to it.
+	 * @return the number of moves played again, 0 if there was none
+	 */
+	public int redo() {
+		if (ponderer != null) {
+			ponderer.stop();
+		}
+		int redone = 0;
+		while (model.canRedo() && (redone == 0 || !model.isXTurn())) {
+			model.redo();
+			redone++;
+		}
+		return redone;
+	}
+	
+	/**
+	 * replay()
+	 * play a list of moves from a new game, e.g. a recorded game, the human and the computer taking turns.
+	 * a game that ends is followed by a new one, so the list can hold several games.
+	 * the moves go through the model like any other, so the view and the autosave see them;
+	 * it stops early if the thread is interrupted.
+	 * the replayed games are not recorded in the game log again, and neither is a game left on the board
+	 * after the replay, since its first moves weren't played by the players.
+	 * @param columns the columns of the moves
+	 * @param movesPerSecond how fast the moves are played, 0 for as fast as possible
+	 * @return the number of moves played
+	 * @throws Connect4IllegalColumnException if a column is not on the board
+	 * @throws Connect4FullColumnException if a column is full
+	 */
+	public int replay(int[] columns, int movesPerSecond) throws Connect4IllegalColumnException, Connect4FullColumnException {
+		newModel();
+		Connect4GameLog log = gameLog;
+		if (log != null) {
+			model.removeMoveListener(log);
+			gameLog = null;
+		}
+		try {
+			long interval = movesPerSecond > 0 ? 1000000000L / movesPerSecond : 0;
+			long next = System.nanoTime();
+			int played = 0;
+			for (int column : columns) {
+				if (Thread.currentThread().isInterrupted()) {
+					break;
+				}
+				if (isGameOver()) {
+					newModel();
+				}
+				if (column < 0 || column >= model.getColumns()) {
+					throw new Connect4IllegalColumnException("invalid column " + column + " in the replay");
+				}
+				if (model.isColumnFull(column)) {
+					throw new Connect4FullColumnException("column " + column + " is full in the replay");
+				}
+				if (model.isXTurn()) {
+					model.placeX(model.getDropRow(column), column);
+				} else {
+					model.placeO(model.getDropRow(column), column);
+				}
+				played++;
+				if (interval > 0) {
+					next += interval;
+					LockSupport.parkNanos(next - System.nanoTime());
+				}
+			}
+			return played;
+		} finally {
+			if (log != null) {
+				gameLog = log;
+				gameLogPending = model.getMoveCount() > 0;
+				if (!gameLogPending) {
+					model.addMoveListener(log);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * computerTurn(): the computer's turn with a time limit.
+	 * the engine searches one move deeper at a time and plays the best move of the last depth it finished
+	 * before the time was up. if no engine was set, a negamax engine with a transposition table is used.
+	 * the limit stays on the engine for the next moves, the reached depth and the time taken can be read from it.
+	 * @param timeBudgetMillis the time for the move in milliseconds
+	 */
+	public void computerTurn(long timeBudgetMillis) {
+		if (engine == null) {
+			engine = new Connect4NegamaxEngine(DEFAULT_MAX_DEPTH, new Connect4TranspositionTable(DEFAULT_TABLE_MB));
+		}
+		engine.setTimeBudget(timeBudgetMillis);
+		computerTurn();
+	}
+	
+	/**
+	 * getEngine()
+	 * @return the engine used for the computer's moves, null for the simple random-and-block moves
+	 */
+	public Connect4Engine getEngine() {
+		return engine;
+	}
+	
 	/**
 	 * threeInRow()
 	 * check if there is three same colors in a row, f it sees three in a row of the opposite color, it should block. 
 	 * If it sees three in a row of its color, it should win
-	 * @return true if the board can put a token after it find three same color token in a row, otherwise return false
+	 * @return the column that blocks or wins after it find three same color token in a row, otherwise return -1
 	 */
-	private boolean threeInRow() {
-		for (int i = 0; i<model.BOARD_ROW ; i++) {
-			for (int j = 0; j<model.BOARD_COLUMN-2 ;j++) {
-				if ((model.board[i][j] == "X" && model.board[i][j+1] == "X" && model.board[i][j+2] == "X") || 
-						(model.board[i][j] == "O" && model.board[i][j+1] == "O" && model.board[i][j+2] == "O")) {
+	private int threeInRow() {
+		for (int i = 0; i<model.getRows() ; i++) {
+			for (int j = 0; j<model.getColumns()-2 ;j++) {
+				if ((getAt(i, j) == "X" && getAt(i, j+1) == "X" && getAt(i, j+2) == "X") || 
+						(getAt(i, j) == "O" && getAt(i, j+1) == "O" && getAt(i, j+2) == "O")) {
 					int column = -1;
 					if (j == 0) { // edge case
-						if (model.board[i][3].equals("_")) {
-							if (!fullCol(3)) {
-								if(getRow(3) == i) {
-									column = 3;
+						if (j+3 < model.getColumns() && getAt(i, j+3).equals("_")) {
+							if (!fullCol(j+3)) {
+								if(getRow(j+3) == i) {
+									column = j+3;
 								}
 							}
 						}
-					}else if(j == 4) { // edge case
-						if (model.board[i][j-1].equals("_")) {
+					}else if(j == model.getColumns()-3) { // edge case
+						if (getAt(i, j-1).equals("_")) {
 							if(!fullCol(j-1)) {
 								if(getRow(j-1) == i) {
-									column = 3;
+									column = j-1;
 								}
 							}
 						}
 					}else{
-						if (model.board[i][j-1].equals("_") && model.board[i][j+3].equals("_")) {
-							Random rand = new Random();
-							int random = rand.nextInt(2);
+						if (getAt(i, j-1).equals("_") && getAt(i, j+3).equals("_")) {
+							int random = ThreadLocalRandom.current().nextInt(2);
 							if (random == 0) {
 								if (!fullCol(j-1)) { //check the left side first, check if the column is full first
 									if(getRow(j-1) == i) { // check if the computer can put the token in the correct line
@@ -211,13 +727,13 @@ public class Connect4Controller {
 									}
 								}
 							}
-						}else if(model.board[i][j-1].equals("_") && !model.board[i][j+3].equals("_")) {  
+						}else if(getAt(i, j-1).equals("_") && !getAt(i, j+3).equals("_")) {  
 							if (!fullCol(j-1)) {
 								if (getRow(j-1) == i) {
 									column = j-1;
 								}
 							}// the case that the right side is blocked already, then can only check the left side
-						}else if(!model.board[i][j-1].equals("_") && model.board[i][j+3].equals("_")) {
+						}else if(!getAt(i, j-1).equals("_") && getAt(i, j+3).equals("_")) {
 							if (!fullCol(j+3)) {
 								if(getRow(j+3) == i) {
 									column = j+3;
@@ -226,42 +742,39 @@ public class Connect4Controller {
 						}// the case that the left side is blocked already, then can only check the right side
 					}
 					if (column != -1) { 
-						int row = getRow(column);
-						model.placeO(row, column);
-						return true;
+						return column;
 					}
 				}
 			}
 		}
-		return false;
+		return -1;
 	}
 	
 	/**
 	 * threeInCol()
 	 * check if there is three same colors in a column, if it sees three in a column of the opposite color, it should block. 
 	 * If it sees three in a column of its color, it should win
-	 * @return true if the board can put a token after it find three same color token in a column, otherwise return false
+	 * @return the column that blocks or wins after it find three same color token in a column, otherwise return -1
 	 */
-	private boolean threeInCol() {
-		for (int i = 0; i < model.BOARD_ROW-2; i++) { // i is the row
-			for (int j = 0; j<model.BOARD_COLUMN; j++) { // j is the column
-				if ((model.board[i][j]=="X" && model.board[i+1][j]=="X" && model.board[i+2][j]=="X") || 
-						(model.board[i][j]=="O" && model.board[i+1][j]=="O" && model.board[i+2][j]=="O")) {
+	private int threeInCol() {
+		for (int i = 0; i < model.getRows()-2; i++) { // i is the row
+			for (int j = 0; j<model.getColumns(); j++) { // j is the column
+				if ((getAt(i, j)=="X" && getAt(i+1, j)=="X" && getAt(i+2, j)=="X") || 
+						(getAt(i, j)=="O" && getAt(i+1, j)=="O" && getAt(i+2, j)=="O")) {
 					
 					int column = -1;
 					if (i!=0) { // if the column is not full
-						if (!model.board[i-1][j].equals("O")) {
+						if (model.getDropRow(j) == i-1) { // only the empty place right above the three
 							column = j;
 						}
 					}
 					if (column != -1) {
-						model.placeO(i-1, column);
-						return true;
+						return column;
 					}
 				}
 			}
 		}
-		return false;
+		return -1;
 	}
 	
 	/**
@@ -271,14 +784,7 @@ public class Connect4Controller {
 	 * @return true if it's full, otherwise its false
 	 */
 	private boolean fullCol(int column) {
-		int row = 5;
-		while (!model.getAtLocation(row, column).equals("_")) {
-			row--;
-			if (row < 0) {
-				return true;
-			}
-		}
-		return false;
+		return model.isColumnFull(column);
 	}
 	
 	/**
@@ -288,12 +794,7 @@ public class Connect4Controller {
 	 * @return the row number
 	 */
 	private int getRow(int column) {
-		int row = 5;
-		while (!model.getAtLocation(row, column).equals("_")) {
-			row--;
-		}
-		return row;
-		
+		return model.getDropRow(column);
 	}
 	
 	/**
@@ -302,39 +803,12 @@ public class Connect4Controller {
 	 * @return return true when the player wins, otherwise return false.
 	 */
 	public boolean playerWin() {
-		for (int row = 3; row < 6;row++) { // vertical
-			for (int col = 0; col<7 ;col++) {
-				if (model.getAtLocation(row, col).equals("X") && model.getAtLocation(row-1, col).equals("X") && 
-						model.getAtLocation(row-2, col).equals("X") && model.getAtLocation(row-3, col).equals("X")) {
-					return true;
-				}
-			}
-		}
-		for (int row = 0; row < 6;row++) {// horizontal
-			for (int col = 0; col<4; col++) {
-				if (model.getAtLocation(row, col).equals("X") && model.getAtLocation(row, col+1).equals("X") && 
-						model.getAtLocation(row, col+2).equals("X") && model.getAtLocation(row, col+3).equals("X")) {
-					return true;
-				}
-			}
+		long start = metrics != null ? System.nanoTime() : 0;
+		boolean win = model.xWins();
+		if (metrics != null) {
+			winCheckTime.record(System.nanoTime() - start);
 		}
-		for (int row = 5; row > 2;row--) {
-			for (int col = 0; col < 4 ;col++) {
-				if (model.getAtLocation(row, col).equals("X") && model.getAtLocation(row-1, col+1).equals("X") 
-						&& model.getAtLocation(row-2, col+2).equals("X") && model.getAtLocation(row-3, col+3).equals("X")) {
-					return true;
-				}
-			}
-		}
-		for (int row = 0; row < 3;row++) {
-			for (int col = 0; col < 4 ;col++) {
-				if (model.getAtLocation(row, col).equals("X") && model.getAtLocation(row+1, col+1).equals("X")
-						&& model.getAtLocation(row+2, col+2).equals("X") && model.getAtLocation(row+3, col+3).equals("X")) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return win;
 	}
 	
 	/** computerWin(): determind if the computer wins and end the game
@@ -342,41 +816,12 @@ public class Connect4Controller {
 	 * @return return true when the player wins, otherwise return false.
 	 */
 	public boolean computerWin() {
-		for (int row = 3; row < 6;row++) {
-			for (int col = 0; col<7 ;col++) {
-				if (model.getAtLocation(row, col).equals("O") && model.getAtLocation(row-1, col).equals("O") && 
-						model.getAtLocation(row-2, col).equals("O") && model.getAtLocation(row-3, col).equals("O")) {
-					return true;
-				}
-			}
-		}
-		for (int row = 0; row < 6;row++) {// horzontal
-			for (int col = 0; col<4; col++) {
-				if (model.getAtLocation(row, col).equals("O") && model.getAtLocation(row, col+1).equals("O") && 
-						model.getAtLocation(row, col+2).equals("O") && model.getAtLocation(row, col+3).equals("O")) {
-					return true;
-				}
-			}
-		}
-		
-		for (int row = 5; row > 2;row--) { // diagonally.
-			for (int col = 0; col < 4 ;col++) {
-				if (model.getAtLocation(row, col).equals("O") && model.getAtLocation(row-1, col+1).equals("O")
-						&& model.getAtLocation(row-2, col+2).equals("O") && model.getAtLocation(row-3, col+3).equals("O")) {
-					return true;
-				}
-			}
+		long start = metrics != null ? System.nanoTime() : 0;
+		boolean win = model.oWins();
+		if (metrics != null) {
+			winCheckTime.record(System.nanoTime() - start);
 		}
-		
-		for (int row = 0; row < 3;row++) { // diagonally.
-			for (int col = 0; col < 4 ;col++) {
-				if (model.getAtLocation(row, col).equals("O") && model.getAtLocation(row+1, col+1).equals("O")
-						&& model.getAtLocation(row+2, col+2).equals("O") && model.getAtLocation(row+3, col+3).equals("O")) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return win;
 	}
 	
 	/**
@@ -385,17 +830,12 @@ public class Connect4Controller {
 	 * @return true if the game is over, false otherwise.
 	 */
 	public boolean isGameOver() {
-		if (playerWin() || computerWin()) {
-			return true;
-		}
-		for (int row = 0; row < 6; row++) {
-			for (int col = 0; col < 7;col++) {
-				if (model.getAtLocation(row, col).equals("_")) {
-					return false;
-				}
-			}
+		long start = metrics != null ? System.nanoTime() : 0;
+		boolean over = model.xWins() || model.oWins() || model.isFull();
+		if (metrics != null) {
+			winCheckTime.record(System.nanoTime() - start); // one check, not one per player
 		}
-		return true;
+		return over;
 	}
 	
 	/**
@@ -405,6 +845,6 @@ public class Connect4Controller {
 	 * @return return the corresponding string.
 	 */
 	public String getAt(int row, int col) {
-		return model.board[row][col];
+		return model.getAtLocation(row, col);
 	}
 }
\ No newline at end of file
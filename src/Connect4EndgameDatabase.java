@@ -0,0 +1,362 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connect4EndgameDatabase
+ * the solved results of endgame positions, a win, a tie or a loss for the player who plays next,
+ * written once by the solver and read from a file.
+ * the format is big-endian: a header of 16 bytes with the magic number "C4EG", the version, the number of rows
+ * and columns, the most empty places of a position, the number of positions and 4 zero bytes,
+ * then the key of every position, sorted, and then the results in 2 bits each,
+ * 4 per byte in the order of the keys: 1 for a loss, 2 for a tie, 3 for a win.
+ * the key is the whole position, not a hash: the bitboard of the player who plays next plus the bitboard of
+ * every token, which is unique, so a lookup never returns the result of another position.
+ * a position and its mirror are one record under the smaller of their keys, they have the same result.
+ * a record takes 8 bytes and 2 bits, the database only holds the positions met while generating,
+ * a dense array of 2 bits over every position with few empty places would be far too big.
+ * like the opening book the file is mapped into memory and searched with a binary search.
+ * @author wentao
+ *
+ */
+public class Connect4EndgameDatabase {
+	static final int MAGIC = 0x43344547; // "C4EG"
+	static final int VERSION = 2;
+	static final int HEADER = 16;
+
+	/**
+	 * the result of a position that is not in the database.
+	 */
+	public static final int UNKNOWN = 2;
+
+	private static final int CELLS = Connect4Model.BOARD_ROW * Connect4Model.BOARD_COLUMN;
+
+	private final MappedByteBuffer records;
+	private final int size;
+	private final int maxEmpty;
+	private final int results;
+
+	/**
+	 * the constructor of the database, it maps the file.
+	 * @param path the file of the database
+	 * @throws IOException if the file can't be read or is not a database for this board
+	 */
+	public Connect4EndgameDatabase(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER) {
+				throw new IOException("not an endgame database");
+			}
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (map.getInt(0) != MAGIC) {
+				throw new IOException("not an endgame database");
+			}
+			if (map.get(4) != VERSION) {
+				throw new IOException("unknown endgame database version " + map.get(4));
+			}
+			if (map.get(5) != Connect4Model.BOARD_ROW || map.get(6) != Connect4Model.BOARD_COLUMN) {
+				throw new IOException("the endgame database is for another board size");
+			}
+			maxEmpty = map.get(7);
+			size = map.getInt(8);
+			if (size < 0 || channel.size() != HEADER + 8L * size + (size + 3) / 4) {
+				throw new IOException("the endgame database is damaged");
+			}
+			results = HEADER + 8 * size;
+			records = map; // the mapping stays valid after the channel is closed
+		}
+	}
+
+	/**
+	 * getSize()
+	 * @return the number of positions in the database
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * getMaxEmpty()
+	 * @return the positions of the database have at most this many empty places
+	 */
+	public int getMaxEmpty() {
+		return maxEmpty;
+	}
+
+	/**
+	 * lookup()
+	 * @param model the model of the game
+	 * @return WIN, TIE or LOSS of Connect4Solver for the player who plays next, UNKNOWN if it is not in the database
+	 */
+	public int lookup(Connect4Model model) {
+		if (!model.isStandard() || CELLS - model.getMoveCount() > maxEmpty) {
+			return UNKNOWN;
+		}
+		return lookup(key(model.getCurrentBoard(), model.getMask()));
+	}
+
+	/**
+	 * key()
+	 * @param current the bitboard of the player who plays next
+	 * @param mask the bitboard of every token
+	 * @return the key of the position or of its mirror, the same for both
+	 */
+	static long key(long current, long mask) {
+		return Math.min(current + mask, Connect4Model.mirror(current) + Connect4Model.mirror(mask));
+	}
+
+	/**
+	 * lookup()
+	 * @param key the key of the position, see key()
+	 * @return WIN, TIE or LOSS for the player who plays next, UNKNOWN if it is not in the database
+	 */
+	public int lookup(long key) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long found = records.getLong(HEADER + 8 * middle);
+			if (found < key) {
+				low = middle + 1;
+			} else if (found > key) {
+				high = middle - 1;
+			} else {
+				int bits = (records.get(results + middle / 4) >>> (2 * (middle % 4))) & 3;
+				return bits - 2; // 1, 2, 3 are LOSS, TIE, WIN
+			}
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * generate()
+	 * play random games, solve every position met with at most maxEmpty empty places where the game is not over,
+	 * and write the database. a position met many times, or its mirror, is solved once.
+	 * the random players take a win and block a loss when they see one, so the endgames look like real ones.
+	 * @param path the file to write
+	 * @param games the number of random games to play
+	 * @param maxEmpty the most empty places of a position in the database
+	 * @param threads the number of threads solving
+	 * @return the number of positions written
+	 * @throws IOException if the file can't be written
+	 */
+	public static int generate(Path path, int games, int maxEmpty, int threads) throws IOException {
+		if (maxEmpty < 1 || maxEmpty > CELLS) {
+			throw new IllegalArgumentException("maxEmpty should be between 1 and the number of cells");
+		}
+		Map<Long, long[]> found = new HashMap<>();
+		Connect4Model model = new Connect4Model();
+		for (int i = 0; i < games; i++) {
+			model.clear();
+			while (!model.isFull()) {
+				int column = randomMove(model);
+				if (model.isWinningMove(column)) {
+					break;
+				}
+				model.makeMove(column);
+				if (CELLS - model.getMoveCount() <= maxEmpty && !model.isFull()) {
+					found.putIfAbsent(key(model.getCurrentBoard(), model.getMask()),
+							new long[] {model.getXBoard(), model.getOBoard()});
+				}
+			}
+		}
+		List<Map.Entry<Long, long[]>> positions = new ArrayList<>(found.entrySet());
+		long[] keys = new long[positions.size()];
+		byte[] values = new byte[positions.size()];
+		for (int k = 0; k < keys.length; k++) {
+			keys[k] = positions.get(k).getKey();
+		}
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> results = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			results.add(pool.submit(() -> {
+				Connect4Model position = new Connect4Model();
+				Connect4Solver solver = new Connect4Solver(maxEmpty, null);
+				for (int k = next.getAndIncrement(); k < keys.length; k = next.getAndIncrement()) {
+					long[] boards = positions.get(k).getValue();
+					position.setPosition(boards[0], boards[1]);
+					values[k] = (byte) solver.solve(position);
+				}
+			}));
+		}
+		try {
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while solving the database");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("a search failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		// sort the keys and take their results along
+		Integer[] order = new Integer[keys.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+		long[] sortedKeys = new long[keys.length];
+		byte[] packed = new byte[(keys.length + 3) / 4];
+		for (int i = 0; i < order.length; i++) {
+			sortedKeys[i] = keys[order[i]];
+			packed[i / 4] |= (values[order[i]] + 2) << (2 * (i % 4));
+		}
+		write(path, sortedKeys, packed, maxEmpty);
+		return sortedKeys.length;
+	}
+
+	/**
+	 * randomMove()
+	 * @param model the model of the game, the board is not full
+	 * @return a winning column if there is one, otherwise the column that blocks the other player if there is one,
+	 * otherwise a random column
+	 */
+	private static int randomMove(Connect4Model model) {
+		long possible = (model.getMask() + (Connect4Model.FULL_MASK & ~(Connect4Model.FULL_MASK << 1)))
+				& Connect4Model.FULL_MASK;
+		long other = model.getCurrentBoard() ^ model.getMask();
+		long wins = Connect4Model.winningCells(model.getCurrentBoard(), model.getMask()) & possible;
+		long blocks = Connect4Model.winningCells(other, model.getMask()) & possible;
+		long cells = wins != 0 ? wins : blocks != 0 ? blocks : 0;
+		if (cells != 0) {
+			return Long.numberOfTrailingZeros(cells) / Connect4Model.HEIGHT;
+		}
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		int column = rand.nextInt(Connect4Model.BOARD_COLUMN);
+		while (!model.canPlay(column)) {
+			column = rand.nextInt(Connect4Model.BOARD_COLUMN);
+		}
+		return column;
+	}
+
+	/**
+	 * write()
+	 * @param path the file to write
+	 * @param keys the sorted keys of the positions
+	 * @param packed the results, 2 bits each
+	 * @param maxEmpty the most empty places of a position
+	 * @throws IOException if the file can't be written
+	 */
+	private static void write(Path path, long[] keys, byte[] packed, int maxEmpty) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		buffer.put((byte) Connect4Model.BOARD_ROW);
+		buffer.put((byte) Connect4Model.BOARD_COLUMN);
+		buffer.put((byte) maxEmpty);
+		buffer.putInt(keys.length);
+		buffer.putInt(0);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (long key : keys) {
+				if (buffer.remaining() < 8) {
+					flush(buffer, channel);
+				}
+				buffer.putLong(key);
+			}
+			for (byte value : packed) {
+				if (!buffer.hasRemaining()) {
+					flush(buffer, channel);
+				}
+				buffer.put(value);
+			}
+			flush(buffer, channel);
+		}
+	}
+
+	/**
+	 * flush()
+	 * @param buffer the bytes to write, it is empty after the call
+	 * @param channel the file
+	 * @throws IOException if the file can't be written
+	 */
+	private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * main() method
+	 * "java Connect4EndgameDatabase generate [file] [games] [maxEmpty] [threads]" writes a database,
+	 * "java Connect4EndgameDatabase oracle [file] [depth]" uses it to check the moves of the negamax engine
+	 * in the endgames of random games, the solver answers the positions that are not in the database:
+	 * a move is a mistake if the position is a win and the move doesn't keep it, or a tie and the move loses.
+	 * @param args the arguments above
+	 * @throws IOException if the database can't be written or read
+	 */
+	public static void main(String[] args) throws IOException {
+		String mode = args.length > 0 ? args[0] : "generate";
+		Path path = Paths.get(args.length > 1 ? args[1] : "endgame.dat");
+		if (mode.equals("generate")) {
+			int games = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+			int maxEmpty = args.length > 3 ? Integer.parseInt(args[3]) : 12;
+			int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+			long start = System.nanoTime();
+			int count = generate(path, games, maxEmpty, threads);
+			System.out.printf("%d positions solved in %.1f s, %d bytes%n", count, (System.nanoTime() - start) / 1e9,
+					HEADER + 8L * count + (count + 3) / 4);
+			return;
+		}
+		Connect4EndgameDatabase database = new Connect4EndgameDatabase(path);
+		int depth = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		Connect4NegamaxEngine engine = new Connect4NegamaxEngine(depth);
+		Connect4Solver solver = new Connect4Solver(CELLS, database);
+		Connect4Model model = new Connect4Model();
+		int checked = 0;
+		int found = 0;
+		int mistakes = 0;
+		for (int game = 0; game < 2000; game++) {
+			model.clear();
+			while (!model.isFull()) {
+				if (CELLS - model.getMoveCount() <= database.getMaxEmpty()) {
+					int result = database.lookup(model);
+					if (result != UNKNOWN) {
+						found++;
+					} else {
+						result = solver.solve(model); // not met while generating, the solver knows it too
+					}
+					int column = engine.bestMove(model);
+					int after;
+					if (model.isWinningMove(column)) {
+						after = Connect4Solver.WIN;
+					} else {
+						model.makeMove(column);
+						after = model.isFull() ? Connect4Solver.TIE : -solver.solve(model);
+						model.unmakeMove(column);
+					}
+					checked++;
+					if (after < result) {
+						mistakes++;
+					}
+				}
+				int column = randomMove(model);
+				if (model.isWinningMove(column)) {
+					break;
+				}
+				model.makeMove(column);
+			}
+		}
+		System.out.printf("%d positions checked, %d found in the database, the depth %d engine made %d mistakes%n",
+				checked, found, depth, mistakes);
+	}
+}
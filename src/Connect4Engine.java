@@ -0,0 +1,63 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connect4Engine
+ * the interface of the AI that picks the computer's move, so the controller can use different searches.
+ * @author wentao
+ *
+ */
+public interface Connect4Engine {
+	/**
+	 * bestMove()
+	 * pick the column the player who plays next should play.
+	 * the engine may try moves on the model, but the model is the same as before when it returns.
+	 * @param model the model of the game
+	 * @return the column to play, -1 if the board is full
+	 */
+	int bestMove(Connect4Model model);
+
+	/**
+	 * supports()
+	 * most engines search the bitboard of the standard board, they can't play on a board of another size.
+	 * @param model the model of the game
+	 * @return true if the engine can pick a move on the model's board
+	 */
+	default boolean supports(Connect4Model model) {
+		return model.isStandard();
+	}
+
+	/**
+	 * setTimeBudget()
+	 * limit the time the engine takes for one move, engines that can't stop early ignore it.
+	 * @param millis the time for one move in milliseconds, 0 for no limit
+	 */
+	default void setTimeBudget(long millis) {
+	}
+
+	/**
+	 * stop()
+	 * ask a running search to stop as soon as possible, engines that can't stop early ignore it.
+	 */
+	default void stop() {
+	}
+
+	/**
+	 * setStopToken()
+	 * stop() only reaches a search that has started, a search clears it when it starts.
+	 * a search that starts while the token is set stops right away, so whoever stops a search from another
+	 * thread sets the token first and calls stop() after, and the stop isn't lost if the search starts in between.
+	 * engines that can't stop early ignore it.
+	 * @param token the stop token of the next searches, null for none
+	 */
+	default void setStopToken(AtomicBoolean token) {
+	}
+
+	/**
+	 * addStats()
+	 * add the numbers of the last search to the metrics, e.g. the positions searched and the table hits.
+	 * engines that don't count anything ignore it.
+	 * @param metrics the metrics of the game
+	 */
+	default void addStats(Connect4Metrics metrics) {
+	}
+}
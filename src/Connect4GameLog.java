@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Connect4GameLog
+ * records every game played into a file that only grows, so the games can be replayed and studied later.
+ * the format is a header of 8 bytes: the magic number "C4GL", the version, the number of rows and columns
+ * and a zero byte, then one record per game: the number of moves in one byte and the column of every move
+ * in one byte each, X first.
+ * the records are collected in a buffer and written through the file channel when it is full or flushed.
+ * as a move listener of a model it records the moves as they are made, endGame() closes the record.
+ * @author wentao
+ *
+ */
+public class Connect4GameLog implements Connect4MoveListener {
+	static final int MAGIC = 0x4334474C; // "C4GL"
+	static final int VERSION = 1;
+	static final int HEADER = 8;
+
+	/**
+	 * the longest record: the number of moves and a column per place of the board.
+	 */
+	static final int MAX_RECORD = 1 + Connect4Model.BOARD_ROW * Connect4Model.BOARD_COLUMN;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+	private final byte[] game = new byte[MAX_RECORD - 1];
+	private int plies;
+	private long games;
+
+	/**
+	 * the constructor of the log, it opens the file and adds to the end of it.
+	 * @param path the file of the log, it is created if it doesn't exist
+	 * @throws IOException if the file can't be opened or is not a game log for this board
+	 */
+	public Connect4GameLog(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				buffer.putInt(MAGIC);
+				buffer.put((byte) VERSION);
+				buffer.put((byte) Connect4Model.BOARD_ROW);
+				buffer.put((byte) Connect4Model.BOARD_COLUMN);
+				buffer.put((byte) 0);
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+					// read until the header is full or the file ends
+				}
+				checkHeader(header);
+			}
+			channel.position(channel.size());
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * checkHeader()
+	 * @param header the first bytes of a log, from position 0
+	 * @throws IOException if they are not the header of a game log for this board
+	 */
+	static void checkHeader(ByteBuffer header) throws IOException {
+		if (header.limit() < HEADER || header.getInt(0) != MAGIC) {
+			throw new IOException("not a game log");
+		}
+		if (header.get(4) != VERSION) {
+			throw new IOException("unknown game log version " + header.get(4));
+		}
+		if (header.get(5) != Connect4Model.BOARD_ROW || header.get(6) != Connect4Model.BOARD_COLUMN) {
+			throw new IOException("the game log is for another board size");
+		}
+	}
+
+	/**
+	 * moveMade()
+	 * add the move to the game being recorded.
+	 * @param move the packed move
+	 */
+	@Override
+	public synchronized void moveMade(int move) {
+		if (plies < game.length) {
+			game[plies++] = (byte) Connect4MoveListener.column(move);
+		}
+	}
+
+	/**
+	 * moveUndone()
+	 * remove the last move from the game being recorded.
+	 * @param move the packed move that was taken back
+	 */
+	@Override
+	public synchronized void moveUndone(int move) {
+		if (plies > 0) {
+			plies--;
+		}
+	}
+
+	/**
+	 * endGame()
+	 * write the record of the game being recorded, if it has any move, and start a new one.
+	 * @throws IOException if the log can't be written
+	 */
+	public synchronized void endGame() throws IOException {
+		if (plies > 0) {
+			append(game, plies);
+			plies = 0;
+		}
+	}
+
+	/**
+	 * append()
+	 * add the record of a whole game.
+	 * @param columns the columns of the moves
+	 * @param length the number of moves
+	 * @throws IOException if the log can't be written
+	 */
+	public synchronized void append(byte[] columns, int length) throws IOException {
+		if (length > MAX_RECORD - 1) {
+			throw new IllegalArgumentException("a game has at most " + (MAX_RECORD - 1) + " moves");
+		}
+		if (buffer.remaining() < 1 + length) {
+			flush();
+		}
+		buffer.put((byte) length);
+		buffer.put(columns, 0, length);
+		games++;
+	}
+
+	/**
+	 * getGames()
+	 * @return the number of games recorded by this log since it was opened
+	 */
+	public synchronized long getGames() {
+		return games;
+	}
+
+	/**
+	 * flush()
+	 * write the buffered records to the file.
+	 * @throws IOException if the log can't be written
+	 */
+	public synchronized void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * close()
+	 * write the game being recorded and the buffered records, then close the file.
+	 * @throws IOException if the log can't be written
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			endGame();
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Connect4GameLogAnalyzer
+ * replays every game of a game log and counts the results, the lengths and the results per opening.
+ * the log is read in chunks of whole records by one thread and the chunks are replayed by the others,
+ * each on its own model and with its own counters, added up at the end.
+ * the chunks come from a small fixed set of buffers that go back and forth between the threads,
+ * so the memory used is the same for a log of a hundred games or of a billion.
+ * a replay thread that fails hands FAILED back instead of its chunk, so the reading thread doesn't wait
+ * for a buffer that never comes, and the failure is thrown by analyze().
+ * @author wentao
+ *
+ */
+public class Connect4GameLogAnalyzer {
+	/**
+	 * the size of a chunk of the log.
+	 */
+	static final int CHUNK = 1 << 20;
+
+	/**
+	 * the chunk that tells a replay thread there is nothing more to read.
+	 */
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	/**
+	 * the buffer a failed replay thread gives back instead of its chunk, it tells the reading thread to stop.
+	 */
+	private static final ByteBuffer FAILED = ByteBuffer.allocate(0);
+
+	private Connect4GameLogAnalyzer() {
+	}
+
+	/**
+	 * analyze()
+	 * @param path the file of the log
+	 * @param threads the number of threads replaying games
+	 * @return the numbers of the log
+	 * @throws IOException if the log can't be read or is not a game log for this board
+	 */
+	public static Connect4GameLogStats analyze(Path path, int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("there should be at least 1 thread");
+		}
+		BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(2 * threads);
+		BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(3 * threads);
+		for (int i = 0; i < 2 * threads; i++) {
+			free.add(ByteBuffer.allocate(CHUNK));
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Connect4GameLogStats>> results = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			results.add(pool.submit(() -> replay(free, full)));
+		}
+		Connect4GameLogStats stats = new Connect4GameLogStats();
+		try {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				read(channel, free, full, stats);
+			} finally {
+				for (int i = 0; i < threads; i++) {
+					full.put(END);
+				}
+			}
+			for (Future<Connect4GameLogStats> result : results) {
+				stats.add(result.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while reading the log");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("a replay failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return stats;
+	}
+
+	/**
+	 * read()
+	 * read the log into chunks that end on a record, and hand them to the replay threads.
+	 * the start of a record cut by the end of a chunk is moved to the next chunk.
+	 * @param channel the file of the log
+	 * @param free the empty buffers
+	 * @param full the chunks to replay
+	 * @param stats the numbers of the log, for a record cut by the end of the file
+	 * @throws IOException if the log can't be read
+	 * @throws InterruptedException if the thread is interrupted while waiting for a buffer
+	 */
+	private static void read(FileChannel channel, BlockingQueue<ByteBuffer> free, BlockingQueue<ByteBuffer> full,
+			Connect4GameLogStats stats) throws IOException, InterruptedException {
+		ByteBuffer buffer = free.take();
+		if (buffer == FAILED) {
+			return;
+		}
+		buffer.clear();
+		while (buffer.position() < Connect4GameLog.HEADER && channel.read(buffer) >= 0) {
+			// read until there is a header or the file ends
+		}
+		buffer.flip();
+		Connect4GameLog.checkHeader(buffer);
+		buffer.position(Connect4GameLog.HEADER);
+		buffer.compact();
+		boolean eof = false;
+		while (!eof) {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					eof = true;
+					break;
+				}
+			}
+			buffer.flip();
+			byte[] bytes = buffer.array();
+			int end = 0;
+			while (end < buffer.limit() && end + 1 + (bytes[end] & 0xFF) <= buffer.limit()) {
+				end += 1 + (bytes[end] & 0xFF);
+			}
+			ByteBuffer next = free.take();
+			if (next == FAILED) {
+				return; // a replay thread failed, analyze() throws its error
+			}
+			next.clear();
+			next.put(bytes, end, buffer.limit() - end);
+			buffer.limit(end);
+			full.put(buffer);
+			buffer = next;
+		}
+		if (buffer.position() > 0) {
+			stats.addDamaged(); // the last record was cut, e.g. by a crash while it was written
+		}
+	}
+
+	/**
+	 * replay()
+	 * the work of one replay thread: replay the games of the chunks until the end.
+	 * @param free the empty buffers, a chunk goes back there once it is replayed
+	 * @param full the chunks to replay
+	 * @return the numbers of the games replayed by this thread
+	 * @throws InterruptedException if the thread is interrupted while waiting for a chunk
+	 */
+	private static Connect4GameLogStats replay(BlockingQueue<ByteBuffer> free, BlockingQueue<ByteBuffer> full)
+			throws InterruptedException {
+		Connect4GameLogStats stats = new Connect4GameLogStats();
+		Connect4Model model = new Connect4Model();
+		boolean finished = false;
+		try {
+			for (ByteBuffer chunk = full.take(); chunk != END; chunk = full.take()) {
+				byte[] bytes = chunk.array();
+				for (int i = 0; i < chunk.limit(); i += 1 + (bytes[i] & 0xFF)) {
+					replayGame(model, bytes, i + 1, bytes[i] & 0xFF, stats);
+				}
+				free.put(chunk);
+			}
+			finished = true;
+		} finally {
+			if (!finished) {
+				free.offer(FAILED); // offer, it never waits: the reading thread may be waiting for the chunk of this thread
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * replayGame()
+	 * play the moves of one game on the model and count its result.
+	 * @param model the model to replay on, it is cleared first
+	 * @param columns the columns of the moves
+	 * @param offset the index of the first move
+	 * @param length the number of moves
+	 * @param stats the numbers to count the game in
+	 */
+	static void replayGame(Connect4Model model, byte[] columns, int offset, int length, Connect4GameLogStats stats) {
+		model.clear();
+		if (length >= Connect4GameLog.MAX_RECORD) {
+			stats.addDamaged();
+			return;
+		}
+		int result = 0;
+		for (int i = 0; i < length; i++) {
+			int column = columns[offset + i];
+			if (result != 0 || !model.canPlay(column)) {
+				stats.addDamaged(); // a move after the end of the game, or in a full column
+				return;
+			}
+			if (model.isWinningMove(column)) {
+				result = model.isXTurn() ? 1 : 2;
+			}
+			model.makeMove(column);
+			if (result == 0 && model.isFull()) {
+				result = 3;
+			}
+		}
+		stats.addGame(result, columns, offset, length);
+	}
+
+	/**
+	 * main() method
+	 * "java Connect4GameLogAnalyzer [file] [threads]" prints the numbers of the log,
+	 * "java Connect4GameLogAnalyzer make [file] [games]" first records random games into the log.
+	 * @param args the arguments above
+	 * @throws IOException if the log can't be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		int first = args.length > 0 && args[0].equals("make") ? 1 : 0;
+		Path path = Paths.get(args.length > first ? args[first] : "games.log");
+		if (first == 1) {
+			long games = args.length > 2 ? Long.parseLong(args[2]) : 1000000;
+			Connect4GameLog log = new Connect4GameLog(path);
+			Connect4Simulator simulator = new Connect4Simulator(Connect4RandomEngine::new, Connect4RandomEngine::new,
+					Runtime.getRuntime().availableProcessors());
+			simulator.setGameLog(log);
+			System.out.println(simulator.run(games));
+			log.close();
+			return;
+		}
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long start = System.nanoTime();
+		Connect4GameLogStats stats = analyze(path, threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.print(stats);
+		System.out.printf("%.2f s, %.0f games/s%n", seconds, (stats.getGames() + stats.getDamaged()) / seconds);
+	}
+}
@@ -0,0 +1,209 @@
+import java.util.Locale;
+
+/**
+ * Connect4GameLogStats
+ * the numbers of a game log: the results, the length of the games, and the results of every opening,
+ * an opening being the first move of X and the first move of O.
+ * the counters are plain arrays of a fixed size, whatever the number of games.
+ * @author wentao
+ *
+ */
+public class Connect4GameLogStats {
+	private static final int COLUMNS = Connect4Model.BOARD_COLUMN;
+	private static final int OPENINGS = COLUMNS * COLUMNS;
+
+	private long xWins;
+	private long oWins;
+	private long ties;
+	private long unfinished;
+	private long damaged;
+	private long moves;
+	private final long[] lengths = new long[Connect4GameLog.MAX_RECORD];
+	private final long[] openingGames = new long[OPENINGS];
+	private final long[] openingXWins = new long[OPENINGS];
+	private final long[] openingOWins = new long[OPENINGS];
+
+	/**
+	 * addGame()
+	 * count one replayed game.
+	 * @param result 1 if X won, 2 if O won, 3 for a tie, 0 if the game was not finished
+	 * @param columns the columns of the moves
+	 * @param offset the index of the first move
+	 * @param length the number of moves
+	 */
+	void addGame(int result, byte[] columns, int offset, int length) {
+		switch (result) {
+		case 1:
+			xWins++;
+			break;
+		case 2:
+			oWins++;
+			break;
+		case 3:
+			ties++;
+			break;
+		default:
+			unfinished++;
+		}
+		moves += length;
+		lengths[length]++;
+		if (length >= 2) {
+			int opening = columns[offset] * COLUMNS + columns[offset + 1];
+			openingGames[opening]++;
+			if (result == 1) {
+				openingXWins[opening]++;
+			} else if (result == 2) {
+				openingOWins[opening]++;
+			}
+		}
+	}
+
+	/**
+	 * addDamaged()
+	 * count a record that is not a valid game, e.g. a move in a full column or a record cut by a crash.
+	 */
+	void addDamaged() {
+		damaged++;
+	}
+
+	/**
+	 * add()
+	 * add the numbers of another part of the log.
+	 * @param other the numbers to add
+	 */
+	void add(Connect4GameLogStats other) {
+		xWins += other.xWins;
+		oWins += other.oWins;
+		ties += other.ties;
+		unfinished += other.unfinished;
+		damaged += other.damaged;
+		moves += other.moves;
+		for (int i = 0; i < lengths.length; i++) {
+			lengths[i] += other.lengths[i];
+		}
+		for (int i = 0; i < OPENINGS; i++) {
+			openingGames[i] += other.openingGames[i];
+			openingXWins[i] += other.openingXWins[i];
+			openingOWins[i] += other.openingOWins[i];
+		}
+	}
+
+	/**
+	 * getGames()
+	 * @return the number of valid games, finished or not
+	 */
+	public long getGames() {
+		return xWins + oWins + ties + unfinished;
+	}
+
+	/**
+	 * getXWins()
+	 * @return the number of games won by X
+	 */
+	public long getXWins() {
+		return xWins;
+	}
+
+	/**
+	 * getOWins()
+	 * @return the number of games won by O
+	 */
+	public long getOWins() {
+		return oWins;
+	}
+
+	/**
+	 * getTies()
+	 * @return the number of tie games
+	 */
+	public long getTies() {
+		return ties;
+	}
+
+	/**
+	 * getUnfinished()
+	 * @return the number of games that were left before the end
+	 */
+	public long getUnfinished() {
+		return unfinished;
+	}
+
+	/**
+	 * getDamaged()
+	 * @return the number of records that are not valid games
+	 */
+	public long getDamaged() {
+		return damaged;
+	}
+
+	/**
+	 * getAverageMoves()
+	 * @return the average number of moves of a game
+	 */
+	public double getAverageMoves() {
+		return getGames() == 0 ? 0 : (double) moves / getGames();
+	}
+
+	/**
+	 * getGamesOfLength()
+	 * @param length a number of moves
+	 * @return the number of games with that many moves
+	 */
+	public long getGamesOfLength(int length) {
+		return lengths[length];
+	}
+
+	/**
+	 * getOpeningGames()
+	 * @param first the first column of X
+	 * @param second the first column of O
+	 * @return the number of games that started with the two moves
+	 */
+	public long getOpeningGames(int first, int second) {
+		return openingGames[first * COLUMNS + second];
+	}
+
+	/**
+	 * getOpeningXWinRate()
+	 * @param first the first column of X
+	 * @param second the first column of O
+	 * @return the part of the games of the opening won by X, 0 if there is none
+	 */
+	public double getOpeningXWinRate(int first, int second) {
+		int opening = first * COLUMNS + second;
+		return openingGames[opening] == 0 ? 0 : (double) openingXWins[opening] / openingGames[opening];
+	}
+
+	/**
+	 * getOpeningOWinRate()
+	 * @param first the first column of X
+	 * @param second the first column of O
+	 * @return the part of the games of the opening won by O, 0 if there is none
+	 */
+	public double getOpeningOWinRate(int first, int second) {
+		int opening = first * COLUMNS + second;
+		return openingGames[opening] == 0 ? 0 : (double) openingOWins[opening] / openingGames[opening];
+	}
+
+	/**
+	 * toString()
+	 * @return the results, then one line per opening that was played
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format(Locale.ROOT,
+				"%d games: X won %d, O won %d, %d ties, %d unfinished, %d damaged, %.1f moves per game%n",
+				getGames(), xWins, oWins, ties, unfinished, damaged, getAverageMoves()));
+		for (int first = 0; first < COLUMNS; first++) {
+			for (int second = 0; second < COLUMNS; second++) {
+				if (getOpeningGames(first, second) > 0) {
+					text.append(String.format(Locale.ROOT, "opening %d %d: %d games, X won %.1f%%, O won %.1f%%%n",
+							first, second, getOpeningGames(first, second), 100 * getOpeningXWinRate(first, second),
+							100 * getOpeningOWinRate(first, second)));
+				}
+			}
+		}
+		return text.toString();
+	}
+}
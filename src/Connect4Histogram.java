@@ -0,0 +1,167 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connect4Histogram
+ * counts values, e.g. times in nanoseconds, in buckets that grow with the value, the way HdrHistogram does:
+ * the values below 64 have a bucket each, and every power of two above is cut into 32 buckets,
+ * so a value is known within about 3% whatever its size, from nanoseconds to hours, in a fixed array.
+ * recording a value is a few bit operations and an atomic add, without a lock or an object,
+ * so any thread can record while another one reads the percentiles.
+ * @author wentao
+ *
+ */
+public class Connect4Histogram {
+	/**
+	 * the buckets of a power of two are 2^SUB_BITS.
+	 */
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * record()
+	 * count one value.
+	 * @param value the value, a negative one counts as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		if (value > max.get()) {
+			max.accumulateAndGet(value, Math::max);
+		}
+	}
+
+	/**
+	 * bucket()
+	 * @param value a value, not negative
+	 * @return the index of its bucket
+	 */
+	static int bucket(long value) {
+		if (value < 2 * SUB) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return shift * SUB + (int) (value >>> shift);
+	}
+
+	/**
+	 * highest()
+	 * @param bucket the index of a bucket
+	 * @return the highest value that goes into the bucket
+	 */
+	static long highest(int bucket) {
+		if (bucket < 2 * SUB) {
+			return bucket;
+		}
+		int shift = bucket / SUB - 1;
+		long sub = bucket % SUB + SUB;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * getCount()
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * getMean()
+	 * @return the average of the values, 0 if there is none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * getMax()
+	 * @return the largest value recorded, exactly
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * getValueAtPercentile()
+	 * @param percentile a number between 0 and 100, e.g. 99.9
+	 * @return the value that this part of the values are below or equal to, within the precision of a bucket,
+	 * 0 if there is no value
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += copy[i];
+			if (seen >= rank) {
+				return Math.min(highest(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * copy()
+	 * @return a histogram with the values recorded so far, it doesn't change with this one
+	 */
+	public Connect4Histogram copy() {
+		Connect4Histogram copy = new Connect4Histogram();
+		for (int i = 0; i < BUCKETS; i++) {
+			long n = counts.get(i);
+			if (n != 0) {
+				copy.counts.set(i, n);
+				copy.count.add(n);
+			}
+		}
+		copy.sum.add(sum.sum());
+		copy.max.set(max.get());
+		return copy;
+	}
+
+	/**
+	 * reset()
+	 * forget every value, values recorded during the reset may be half counted.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	/**
+	 * toString()
+	 * @return the count, the mean and a few percentiles, read as nanoseconds and shown in microseconds
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "count %d, mean %.1f us, p50 %.1f us, p90 %.1f us, p99 %.1f us, "
+				+ "p99.9 %.1f us, max %.1f us", getCount(), getMean() / 1e3, getValueAtPercentile(50) / 1e3,
+				getValueAtPercentile(90) / 1e3, getValueAtPercentile(99) / 1e3, getValueAtPercentile(99.9) / 1e3,
+				getMax() / 1e3);
+	}
+}
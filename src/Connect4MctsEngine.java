@@ -0,0 +1,526 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Connect4MctsEngine
+ * the AI that plays many quick random games (playouts) and grows a tree toward the moves that win most of them
+ * (Monte Carlo tree search with UCT). it plays better the more time and cores it gets, and a search can be stopped
+ * at any moment.
+ * the nodes of the tree are kept in arrays allocated once, one entry per node in each array, so the search
+ * creates no object. the playouts work on the bitboards only, they take a win and block a loss in one move
+ * and play at random otherwise.
+ * several threads can grow the same tree: a thread going through a node counts the visit before its playout ends,
+ * as if it lost it (virtual loss), so the other threads try other moves in the meantime.
+ * the part of the tree under the moves that were really played is kept for the next move.
+ * @author wentao
+ *
+ */
+public class Connect4MctsEngine implements Connect4Engine {
+	/**
+	 * how much UCT tries the moves with few visits.
+	 */
+	static final double EXPLORATION = 1.4;
+
+	/**
+	 * a leaf gets its children when it is visited again after this many visits, so the tree
+	 * doesn't grow a node for every single playout.
+	 */
+	static final int EXPAND_VISITS = 2;
+
+	/**
+	 * the number of playouts of a move when there is no time budget.
+	 */
+	static final int DEFAULT_PLAYOUTS = 100000;
+
+	/**
+	 * the values of firstChild for a node that has no children yet, or whose children are being added.
+	 */
+	private static final int UNEXPANDED = -1;
+	private static final int EXPANDING = -2;
+
+	/**
+	 * the lowest place of every column, adding it to the mask gives the place a token would land on.
+	 */
+	private static final long BOTTOM = Connect4Model.FULL_MASK & ~(Connect4Model.FULL_MASK << 1);
+
+	/**
+	 * the node pool: the column played to reach the node, its first child (the children are next to each other),
+	 * the number of children, the visits, and the score of the player who played the move to the node,
+	 * 2 for a win and 1 for a tie.
+	 */
+	private final byte[] move;
+	private final AtomicIntegerArray firstChild;
+	private final byte[] childCount;
+	private final AtomicIntegerArray visits;
+	private final AtomicLongArray score;
+	private final AtomicInteger used = new AtomicInteger();
+
+	private final ExecutorService pool;
+	private final Future<?>[] running;
+	private volatile boolean stopped;
+	private volatile AtomicBoolean stopToken;
+	private long timeBudgetMillis;
+	private int playouts = DEFAULT_PLAYOUTS;
+	private final AtomicInteger played = new AtomicInteger();
+
+	/**
+	 * the root of the tree and its board, to find the new root after the next moves.
+	 */
+	private int root = -1;
+	private long rootX;
+	private long rootO;
+	private long elapsedNanos;
+
+	/**
+	 * the constructor of the engine.
+	 * @param nodes the size of the node pool, about 22 bytes per node
+	 * @param threads the number of threads running playouts, including the one asking for the move
+	 */
+	public Connect4MctsEngine(int nodes, int threads) {
+		if (nodes < 1 + Connect4Model.BOARD_COLUMN) {
+			throw new IllegalArgumentException("the pool needs room for the root and its children");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("there should be at least 1 thread");
+		}
+		move = new byte[nodes];
+		firstChild = new AtomicIntegerArray(nodes);
+		childCount = new byte[nodes];
+		visits = new AtomicIntegerArray(nodes);
+		score = new AtomicLongArray(nodes);
+		running = new Future<?>[threads - 1];
+		pool = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, r -> {
+			Thread thread = new Thread(r, "connect4-mcts");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * setTimeBudget()
+	 * @param millis the time for one move in milliseconds, 0 to run a fixed number of playouts instead
+	 */
+	@Override
+	public void setTimeBudget(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("the time budget can't be negative");
+		}
+		this.timeBudgetMillis = millis;
+	}
+
+	/**
+	 * setPlayouts()
+	 * @param playouts the number of playouts of a move when there is no time budget
+	 */
+	public void setPlayouts(int playouts) {
+		if (playouts < 1) {
+			throw new IllegalArgumentException("there should be at least 1 playout");
+		}
+		this.playouts = playouts;
+	}
+
+	/**
+	 * getPlayouts()
+	 * @return the number of playouts of the last move
+	 */
+	public int getPlayouts() {
+		return played.get();
+	}
+
+	/**
+	 * addStats()
+	 * add the playouts of the last move to the metrics.
+	 * @param metrics the metrics of the game
+	 */
+	@Override
+	public void addStats(Connect4Metrics metrics) {
+		metrics.count(Connect4Metrics.AI_SEARCHES, 1);
+		metrics.count(Connect4Metrics.AI_PLAYOUTS, played.get());
+	}
+
+	/**
+	 * getNodes()
+	 * @return the number of nodes of the pool in use
+	 */
+	public int getNodes() {
+		return Math.min(used.get(), move.length);
+	}
+
+	/**
+	 * getRootVisits()
+	 * @return the visits of the root after the last move, including the ones kept from the moves before
+	 */
+	public int getRootVisits() {
+		return root == -1 ? 0 : visits.get(root);
+	}
+
+	/**
+	 * getElapsedNanos()
+	 * @return how long the last search took
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * stop()
+	 * ask the running search to stop, it returns the most visited column so far.
+	 */
+	@Override
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * setStopToken()
+	 * @param token the stop token of the next searches, null for none
+	 */
+	@Override
+	public void setStopToken(AtomicBoolean token) {
+		this.stopToken = token;
+	}
+
+	/**
+	 * clearStop()
+	 * clear the stop request when a search starts, unless the stop token is set.
+	 * the request is cleared before the token is read, so a stop() that comes with the token is never lost.
+	 */
+	private void clearStop() {
+		stopped = false;
+		if (stopToken != null && stopToken.get()) {
+			stopped = true;
+		}
+	}
+
+	/**
+	 * bestMove()
+	 * play a winning move right away, otherwise run the playouts and play the most visited column.
+	 * @param model the model of the game
+	 * @return the column to play, -1 if the board is full
+	 */
+	@Override
+	public int bestMove(Connect4Model model) {
+		if (!supports(model)) {
+			throw new IllegalArgumentException("the engine only plays the standard board");
+		}
+		long start = System.nanoTime();
+		clearStop();
+		played.set(0);
+		int any = -1;
+		for (int column : Connect4NegamaxEngine.MOVE_ORDER) {
+			if (model.canPlay(column)) {
+				if (model.isWinningMove(column)) {
+					return column;
+				}
+				if (any == -1) {
+					any = column;
+				}
+			}
+		}
+		if (any == -1) {
+			return -1;
+		}
+		moveRoot(model);
+		long deadline = timeBudgetMillis > 0 ? start + timeBudgetMillis * 1000000L : 0;
+		for (int i = 0; i < running.length; i++) {
+			Connect4Model copy = model.copy();
+			running[i] = pool.submit(() -> work(copy, deadline));
+		}
+		work(model.copy(), deadline);
+		for (int i = 0; i < running.length; i++) {
+			try {
+				running[i].get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("playouts failed", e.getCause());
+			}
+			running[i] = null;
+		}
+		elapsedNanos = System.nanoTime() - start;
+		int best = any;
+		int bestVisits = -1;
+		int first = firstChild.get(root);
+		for (int i = 0; first >= 0 && i < childCount[root]; i++) {
+			int child = first + i;
+			if (visits.get(child) > bestVisits) {
+				bestVisits = visits.get(child);
+				best = move[child];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * shutdown()
+	 * stop the threads, the engine can't be used after that.
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * moveRoot()
+	 * find the board in the tree, up to two moves under the old root, and make it the root.
+	 * the tree starts again from an empty pool if the board isn't there or the pool is more than half used.
+	 * @param model the model of the game
+	 */
+	private void moveRoot(Connect4Model model) {
+		int found = root == -1 || used.get() > move.length / 2 ? -1 : find(root, rootX, rootO, model, 2);
+		if (found == -1) {
+			used.set(0);
+			found = allocate(1);
+			move[found] = -1;
+			firstChild.set(found, UNEXPANDED);
+			visits.set(found, 0);
+			score.set(found, 0);
+		}
+		root = found;
+		rootX = model.getXBoard();
+		rootO = model.getOBoard();
+	}
+
+	/**
+	 * find()
+	 * @param node a node of the tree
+	 * @param x the bitboard of X at the node
+	 * @param o the bitboard of O at the node
+	 * @param model the board to find
+	 * @param depth how many moves under the node to look
+	 * @return the node of the board, -1 if it isn't in the tree
+	 */
+	private int find(int node, long x, long o, Connect4Model model, int depth) {
+		if (x == model.getXBoard() && o == model.getOBoard()) {
+			return node;
+		}
+		int first = firstChild.get(node);
+		if (depth == 0 || first < 0) {
+			return -1;
+		}
+		long mask = x | o;
+		boolean xTurn = (Long.bitCount(mask) & 1) == 0;
+		for (int i = 0; i < childCount[node]; i++) {
+			int child = first + i;
+			long bit = (mask + (BOTTOM & column(move[child]))) & column(move[child]) & ~mask;
+			int found = find(child, xTurn ? x | bit : x, xTurn ? o : o | bit, model, depth - 1);
+			if (found != -1) {
+				return found;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * work()
+	 * the playouts of one thread, until the time is up, enough playouts were run, or the search is stopped.
+	 * @param model a copy of the board of the root, only used by this thread
+	 * @param deadline the time to stop at, 0 to count the playouts instead
+	 */
+	private void work(Connect4Model model, long deadline) {
+		int[] path = new int[Connect4NegamaxEngine.MAX_PLY + 1];
+		int rootMoves = model.getMoveCount();
+		while (!stopped) {
+			int count = played.incrementAndGet();
+			if (deadline != 0 ? System.nanoTime() - deadline > 0 : count > playouts) {
+				played.decrementAndGet();
+				break;
+			}
+			iterate(model, path);
+			while (model.getMoveCount() > rootMoves) {
+				model.unmakeMove(move[path[model.getMoveCount() - rootMoves]]);
+			}
+		}
+	}
+
+	/**
+	 * iterate()
+	 * one playout: go down the tree with UCT, add the children of the leaf, play at random from there,
+	 * and add the result to every node on the way.
+	 * @param model the board of the root, the moves down the tree are left on it
+	 * @param path the nodes on the way
+	 */
+	private void iterate(Connect4Model model, int[] path) {
+		int node = root;
+		int length = 0;
+		path[length++] = node;
+		visits.incrementAndGet(node);
+		int result; // for the player who played the move to the last node
+		while (true) {
+			int first = firstChild.get(node);
+			if (first == UNEXPANDED && visits.get(node) > EXPAND_VISITS
+					&& used.get() + Connect4Model.BOARD_COLUMN <= move.length
+					&& firstChild.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+				first = expand(node, model);
+			}
+			if (first < 0) {
+				result = 2 - playout(model.getCurrentBoard(), model.getMask());
+				break;
+			}
+			int child = select(node, first);
+			visits.incrementAndGet(child); // the virtual loss, until the result is added
+			path[length++] = child;
+			int column = move[child];
+			if (model.isWinningMove(column)) {
+				model.makeMove(column);
+				result = 2;
+				break;
+			}
+			model.makeMove(column);
+			if (model.isFull()) {
+				result = 1;
+				break;
+			}
+			node = child;
+		}
+		for (int i = length - 1; i >= 0; i--) {
+			score.addAndGet(path[i], result);
+			result = 2 - result;
+		}
+	}
+
+	/**
+	 * expand()
+	 * add a child for every column that is not full, from the center out.
+	 * @param node the node, its firstChild is EXPANDING
+	 * @param model the board of the node
+	 * @return the first child, or UNEXPANDED if the pool is full
+	 */
+	private int expand(int node, Connect4Model model) {
+		int count = 0;
+		for (int column : Connect4NegamaxEngine.MOVE_ORDER) {
+			if (model.canPlay(column)) {
+				count++;
+			}
+		}
+		int first = allocate(count);
+		if (first == -1) {
+			firstChild.set(node, UNEXPANDED);
+			return UNEXPANDED;
+		}
+		int child = first;
+		for (int column : Connect4NegamaxEngine.MOVE_ORDER) {
+			if (model.canPlay(column)) {
+				move[child] = (byte) column;
+				firstChild.set(child, UNEXPANDED);
+				visits.set(child, 0);
+				score.set(child, 0);
+				child++;
+			}
+		}
+		childCount[node] = (byte) count;
+		firstChild.set(node, first); // publishes the children to the other threads
+		return first;
+	}
+
+	/**
+	 * allocate()
+	 * @param count the number of nodes
+	 * @return the first of count new nodes, -1 if the pool is full
+	 */
+	private int allocate(int count) {
+		int first = used.getAndAdd(count);
+		return first + count <= move.length ? first : -1;
+	}
+
+	/**
+	 * select()
+	 * @param node a node with children
+	 * @param first its first child
+	 * @return the child with the best UCT value, a child never visited goes first
+	 */
+	private int select(int node, int first) {
+		double logVisits = Math.log(Math.max(1, visits.get(node)));
+		int best = first;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < childCount[node]; i++) {
+			int child = first + i;
+			int n = visits.get(child);
+			if (n == 0) {
+				return child;
+			}
+			double value = score.get(child) / (2.0 * n) + EXPLORATION * Math.sqrt(logVisits / n);
+			if (value > bestValue) {
+				bestValue = value;
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * playout()
+	 * play the game to the end on the bitboards: take a win, block a loss, or play a random column.
+	 * @param mine the bitboard of the player who plays next
+	 * @param mask the bitboard of every place that has a token
+	 * @return 2 if the player who plays next wins, 1 for a tie, 0 if they lose
+	 */
+	static int playout(long mine, long mask) {
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		int result = 2;
+		while (true) {
+			long playable = (mask + BOTTOM) & Connect4Model.FULL_MASK;
+			if (playable == 0) {
+				return 1;
+			}
+			long theirs = mine ^ mask;
+			if ((Connect4Model.winningCells(mine, mask) & playable) != 0) {
+				return result;
+			}
+			long threats = Connect4Model.winningCells(theirs, mask) & playable;
+			long bit;
+			if (threats != 0) {
+				bit = Long.lowestOneBit(threats);
+			} else {
+				for (int skip = rand.nextInt(Long.bitCount(playable)); skip > 0; skip--) {
+					playable &= playable - 1;
+				}
+				bit = Long.lowestOneBit(playable);
+			}
+			mask |= bit;
+			mine = theirs; // the other player plays next
+			result = 2 - result;
+		}
+	}
+
+	/**
+	 * column()
+	 * @param column a column of the board
+	 * @return the bits of the places of the column
+	 */
+	private static long column(int column) {
+		return (((1L << Connect4Model.BOARD_ROW) - 1) << (column * Connect4Model.HEIGHT));
+	}
+
+	/**
+	 * main() method
+	 * play the engine as O against the negamax engine as X and print the results,
+	 * and the playouts per second on the empty board.
+	 * @param args the time per move in milliseconds, the number of threads, the number of games and the depth of X
+	 */
+	public static void main(String[] args) {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : 100;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int games = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int depth = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		Connect4MctsEngine engine = new Connect4MctsEngine(1 << 20, threads);
+		engine.setTimeBudget(1000);
+		System.out.printf("column %d after %d playouts in 1 s on %d threads%n",
+				engine.bestMove(new Connect4Model()), engine.getPlayouts(), threads);
+		engine.shutdown();
+		Connect4Simulator simulator = new Connect4Simulator(() -> new Connect4NegamaxEngine(depth), () -> {
+			Connect4MctsEngine mcts = new Connect4MctsEngine(1 << 20, threads);
+			mcts.setTimeBudget(millis);
+			return mcts;
+		}, 1);
+		System.out.println(simulator.run(games));
+	}
+}
@@ -0,0 +1,172 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Connect4Metrics
+ * the counters and the latency histograms of the game, by name, e.g. the time of the human's moves,
+ * the positions searched by the AI and the hits of its transposition table.
+ * the controller fills them when they are set with setMetrics(), without metrics it only checks for null;
+ * counting and recording take no lock and create no object, so the threads of the AI can share them.
+ * snapshot() copies the numbers at once, startDump() prints them every few seconds.
+ * @author wentao
+ *
+ */
+public class Connect4Metrics {
+	/**
+	 * the histograms of the controller, in nanoseconds.
+	 */
+	public static final String HUMAN_TURN = "humanTurn";
+	public static final String COMPUTER_TURN = "computerTurn";
+	public static final String WIN_CHECK = "winCheck";
+	public static final String SAVE_GAME = "saveGame";
+	public static final String LOAD = "load";
+	/**
+	 * the counters of the controller: the moves played, and where the computer's moves came from.
+	 */
+	public static final String MOVES = "moves";
+	public static final String BOOK_MOVES = "computer.book";
+	public static final String SOLVER_MOVES = "computer.solver";
+	public static final String PONDER_MOVES = "computer.ponder";
+	public static final String ENGINE_MOVES = "computer.engine";
+	public static final String SIMPLE_MOVES = "computer.simple";
+	/**
+	 * the counters of the engines, see Connect4Engine.addStats().
+	 */
+	public static final String AI_SEARCHES = "ai.searches";
+	public static final String AI_NODES = "ai.nodes";
+	public static final String AI_PLAYOUTS = "ai.playouts";
+	public static final String TABLE_PROBES = "ai.table.probes";
+	public static final String TABLE_HITS = "ai.table.hits";
+	public static final String DATABASE_PROBES = "ai.database.probes";
+	public static final String DATABASE_HITS = "ai.database.hits";
+
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final Map<String, Connect4Histogram> histograms = new ConcurrentHashMap<>();
+	private ScheduledExecutorService dumper;
+
+	/**
+	 * counter()
+	 * the counter of the name, it is created the first time.
+	 * keep it to count often without looking up the name.
+	 * @param name the name of the counter
+	 * @return the counter
+	 */
+	public LongAdder counter(String name) {
+		return counters.computeIfAbsent(name, n -> new LongAdder());
+	}
+
+	/**
+	 * histogram()
+	 * the histogram of the name, it is created the first time.
+	 * keep it to record often without looking up the name.
+	 * @param name the name of the histogram
+	 * @return the histogram
+	 */
+	public Connect4Histogram histogram(String name) {
+		return histograms.computeIfAbsent(name, n -> new Connect4Histogram());
+	}
+
+	/**
+	 * count()
+	 * @param name the name of the counter
+	 * @param n the number to add to it
+	 */
+	public void count(String name, long n) {
+		if (n != 0) {
+			counter(name).add(n);
+		}
+	}
+
+	/**
+	 * record()
+	 * @param name the name of the histogram
+	 * @param nanos the time to record in it, in nanoseconds
+	 */
+	public void record(String name, long nanos) {
+		histogram(name).record(nanos);
+	}
+
+	/**
+	 * snapshot()
+	 * @return a copy of every counter and histogram, it doesn't change when more is counted
+	 */
+	public Connect4MetricsSnapshot snapshot() {
+		return new Connect4MetricsSnapshot(counters, histograms);
+	}
+
+	/**
+	 * reset()
+	 * start every counter and histogram from 0 again, e.g. after warming up.
+	 */
+	public void reset() {
+		for (LongAdder counter : counters.values()) {
+			counter.reset();
+		}
+		for (Connect4Histogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * startDump()
+	 * print the snapshot every period on a background thread, until stopDump() is called.
+	 * @param periodMillis the time between two dumps in milliseconds
+	 * @param out where the text goes, e.g. System.out::println
+	 */
+	public synchronized void startDump(long periodMillis, Consumer<String> out) {
+		if (periodMillis <= 0) {
+			throw new IllegalArgumentException("the period should be positive");
+		}
+		stopDump();
+		dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "connect4-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleAtFixedRate(() -> out.accept(snapshot().toString()), periodMillis, periodMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * stopDump()
+	 * stop the dumps started by startDump(), if any.
+	 */
+	public synchronized void stopDump() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+	}
+
+	/**
+	 * main()
+	 * play random X against a negamax O with metrics, dumping them every second, then print them.
+	 * @param args the number of games, 1000 by default
+	 */
+	public static void main(String[] args) throws Connect4IllegalColumnException, Connect4FullColumnException {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		Connect4Metrics metrics = new Connect4Metrics();
+		metrics.startDump(1000, System.out::println);
+		Connect4Engine x = new Connect4RandomEngine();
+		Connect4Controller controller = new Connect4Controller(new Connect4Model());
+		controller.setEngine(new Connect4NegamaxEngine(6, new Connect4TranspositionTable(16)));
+		controller.setMetrics(metrics);
+		for (int i = 0; i < games; i++) {
+			controller.newModel();
+			while (!controller.isGameOver()) {
+				if (controller.getModel().isXTurn()) {
+					controller.humanTurn(x.bestMove(controller.getModel()));
+				} else {
+					controller.computerTurn();
+				}
+			}
+		}
+		metrics.stopDump();
+		System.out.println(metrics.snapshot());
+	}
+}
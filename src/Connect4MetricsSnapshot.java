@@ -0,0 +1,117 @@
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connect4MetricsSnapshot
+ * the counters and the histograms of Connect4Metrics at one time, they don't change after.
+ * toString() is the text that the periodic dump prints.
+ * @author wentao
+ *
+ */
+public class Connect4MetricsSnapshot {
+	private final long time = System.currentTimeMillis();
+	private final Map<String, Long> counters = new TreeMap<>();
+	private final Map<String, Connect4Histogram> histograms = new TreeMap<>();
+
+	/**
+	 * the constructor of the snapshot, it copies the numbers.
+	 * @param counters the counters by name
+	 * @param histograms the histograms by name
+	 */
+	Connect4MetricsSnapshot(Map<String, LongAdder> counters, Map<String, Connect4Histogram> histograms) {
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			this.counters.put(entry.getKey(), entry.getValue().sum());
+		}
+		for (Map.Entry<String, Connect4Histogram> entry : histograms.entrySet()) {
+			this.histograms.put(entry.getKey(), entry.getValue().copy());
+		}
+	}
+
+	/**
+	 * getTime()
+	 * @return when the snapshot was taken, in milliseconds since 1970
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * getCounter()
+	 * @param name the name of the counter
+	 * @return its value, 0 if nothing was counted
+	 */
+	public long getCounter(String name) {
+		return counters.getOrDefault(name, 0L);
+	}
+
+	/**
+	 * getHistogram()
+	 * @param name the name of the histogram
+	 * @return a copy of it, an empty one if nothing was recorded
+	 */
+	public Connect4Histogram getHistogram(String name) {
+		Connect4Histogram histogram = histograms.get(name);
+		return histogram == null ? new Connect4Histogram() : histogram.copy();
+	}
+
+	/**
+	 * getCounters()
+	 * @return every counter by name
+	 */
+	public Map<String, Long> getCounters() {
+		return Collections.unmodifiableMap(counters);
+	}
+
+	/**
+	 * getTableHitRate()
+	 * @return the part of the transposition table probes that found an entry, 0 if there was none
+	 */
+	public double getTableHitRate() {
+		return rate(Connect4Metrics.TABLE_HITS, Connect4Metrics.TABLE_PROBES);
+	}
+
+	/**
+	 * getDatabaseHitRate()
+	 * @return the part of the endgame database lookups that found the position, 0 if there was none
+	 */
+	public double getDatabaseHitRate() {
+		return rate(Connect4Metrics.DATABASE_HITS, Connect4Metrics.DATABASE_PROBES);
+	}
+
+	/**
+	 * rate()
+	 * @param part the name of the counter of the hits
+	 * @param whole the name of the counter of the tries
+	 * @return part / whole, 0 if there was no try
+	 */
+	private double rate(String part, String whole) {
+		long n = getCounter(whole);
+		return n == 0 ? 0 : (double) getCounter(part) / n;
+	}
+
+	/**
+	 * toString()
+	 * @return one line per histogram and per counter, sorted by name, and the hit rates
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append("metrics at ").append(new Date(time)).append('\n');
+		for (Map.Entry<String, Connect4Histogram> entry : histograms.entrySet()) {
+			text.append(String.format("  %-20s %s%n", entry.getKey(), entry.getValue()));
+		}
+		for (Map.Entry<String, Long> entry : counters.entrySet()) {
+			text.append(String.format("  %-20s %d%n", entry.getKey(), entry.getValue()));
+		}
+		if (getCounter(Connect4Metrics.TABLE_PROBES) > 0) {
+			text.append(String.format("  %-20s %.1f%%%n", "ai.table.hitRate", 100 * getTableHitRate()));
+		}
+		if (getCounter(Connect4Metrics.DATABASE_PROBES) > 0) {
+			text.append(String.format("  %-20s %.1f%%%n", "ai.database.hitRate", 100 * getDatabaseHitRate()));
+		}
+		return text.toString();
+	}
+}
@@ -1,3 +1,8 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.Arrays;
 import java.util.Observable;
 
 import javafx.scene.paint.Color;
@@ -5,6 +10,17 @@ import javafx.scene.paint.Color;
 /**
  * Connect4Model
  * the model of the connect4 game, it store the states of the board and it interact with the controller.
+ * the board is packed into two bitboards, one for each player, plus the height of every column.
+ * each column takes rows + 1 bits, the lowest bit is the bottom row and the top bit is always empty,
+ * so a line can be followed bit by bit without wrapping into the next column.
+ * the board can have any size and any length of the winning line (connect), the bitboards are arrays of longs.
+ * the standard board, 6 rows by 7 columns and connect 4, fits in one long and has the fast paths used by the AI:
+ * getXBoard(), isWin() and winningCells() work on that long, see isStandard().
+ * a move only touches one bit and checks the lines through its place, so it costs about the same on any size.
+ * a move is told to the Connect4MoveListeners as a packed int, and to the Observers as a Connect4MoveMessage
+ * only when there are some, so a game without a view doesn't create any object per move.
+ * other threads read the board through the Connect4Position published after every move, see setPublishing().
+ * the moves of the game are kept on a stack, so undo() and redo() take one back or play it again in constant time.
  * @author wentao
  *
  */
@@ -13,41 +29,438 @@ public class Connect4Model extends Observable implements java.io.Serializable{
 	 * add the serialVersionUID
 	 */
 	private static final long serialVersionUID = 1L;
-	public static int BOARD_ROW = 6;
-	public static int BOARD_COLUMN = 7;
-	String[][] board;
-	
+
+	/**
+	 * the saved game still stores the board as the old String[][] so the save file stays the same,
+	 * the length of the line is added, old saves without it are connect 4.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("board", String[][].class),
+			new ObjectStreamField("connect", int.class)
+	};
+	/**
+	 * the size and the line of the standard board.
+	 */
+	public static final int BOARD_ROW = 6;
+	public static final int BOARD_COLUMN = 7;
+	public static final int CONNECT = 4;
+	/**
+	 * the most rows or columns of a board, a move packs them in a byte.
+	 */
+	public static final int MAX_SIZE = 64;
+	/**
+	 * the number of bits used by one column of the standard board, the extra bit on top keeps the columns apart.
+	 */
+	static final int HEIGHT = BOARD_ROW + 1;
+
+	/**
+	 * the seed of the Zobrist numbers, fixed so a hash is the same in every run, which lets it be stored in files.
+	 */
+	private static final long ZOBRIST_SEED = 0x436F6E6E65637434L;
+
+	/**
+	 * the random numbers of the Zobrist hash of the standard board, one for each place and player.
+	 * the hash of a board is the xor of the numbers of its tokens, so a move changes it with a single xor.
+	 */
+	private static final long[] ZOBRIST = zobristKeys(HEIGHT, BOARD_COLUMN);
+
+	/**
+	 * the numbers of the mirrored places, the hash of the board seen in a mirror is kept with them.
+	 */
+	private static final long[] MIRROR_ZOBRIST = mirrorKeys(ZOBRIST, HEIGHT, BOARD_COLUMN);
+
+	private static final Connect4MoveListener[] NO_LISTENERS = new Connect4MoveListener[0];
+
+	/**
+	 * a move of the history is its bit in the bitboards, bits 0-15, and these flags:
+	 * the player, and the cached win status from before the move, so undo() doesn't have to check the board.
+	 */
+	private static final int O_MOVE = 1 << 16;
+	private static final int WIN_KNOWN = 1 << 17;
+	private static final int X_WON = 1 << 18;
+	private static final int O_WON = 1 << 19;
+	private static final int POS_MASK = 0xFFFF;
+
+	private transient int rows;
+	private transient int columns;
+	private transient int connect;
+	/**
+	 * the bits of a column, rows + 1, and of the whole board.
+	 */
+	private transient int stride;
+	private transient int cells;
+	private transient boolean standard;
+	private transient long[] zobrist;
+	private transient long[] mirrorZobrist;
+
+	private transient long[] xBoard;
+	private transient long[] oBoard;
+	private transient int[] height;
+	private transient int moveCount;
+	private transient long hash;
+	private transient long mirrorHash;
+	private transient int lastRow = -1;
+	private transient int lastColumn = -1;
+	/**
+	 * the win status is cached and only updated around the last move,
+	 * winKnown is false after the board was edited directly and it needs a full check.
+	 */
+	private transient boolean winKnown = true;
+	private transient boolean xWon;
+	private transient boolean oWon;
+	/**
+	 * the moves of the game that can be undone, then the undone ones that can be redone.
+	 * it is emptied when the board is edited directly, e.g. by clear() or setPosition().
+	 */
+	private transient int[] history;
+	private transient int historyLength;
+	private transient int historyEnd;
+	/**
+	 * the listeners, the array is replaced and never changed so a move can go through it without a lock.
+	 */
+	private transient volatile Connect4MoveListener[] listeners = NO_LISTENERS;
+	/**
+	 * the last published snapshot of the board, null when publishing is off.
+	 * only the thread that makes the moves writes it, and only for real moves, not for makeMove().
+	 */
+	private transient volatile Connect4Position position;
+	private transient boolean publishing;
+	private transient long sequence;
+
 	/**
 	 * the constructor of the model class
-	 * it generate the empty board, which initialize each place to "_".
+	 * it generate the empty standard board.
 	 */
 	public Connect4Model() {
-		board = new String[BOARD_ROW][BOARD_COLUMN];
-		for (int i = 0; i<BOARD_ROW;i++) {
-			for (int j = 0; j < BOARD_COLUMN; j++) {
-				board[i][j]="_";
+		this(BOARD_ROW, BOARD_COLUMN, CONNECT);
+	}
+
+	/**
+	 * the constructor of the model for a board of any size.
+	 * @param rows the number of rows
+	 * @param columns the number of columns
+	 * @param connect the number of tokens in a line that wins
+	 */
+	public Connect4Model(int rows, int columns, int connect) {
+		init(rows, columns, connect, null, null);
+	}
+
+	/**
+	 * the constructor of an empty model of the same size as another, it shares its Zobrist numbers.
+	 * @param other the model to take the size from
+	 */
+	private Connect4Model(Connect4Model other) {
+		init(other.rows, other.columns, other.connect, other.zobrist, other.mirrorZobrist);
+	}
+
+	/**
+	 * init()
+	 * set the size of the board and make it empty.
+	 * @param rows the number of rows
+	 * @param columns the number of columns
+	 * @param connect the number of tokens in a line that wins
+	 * @param zobrist the Zobrist numbers of a board of that size, null to make them
+	 * @param mirrorZobrist the numbers of the mirrored places, null to make them
+	 */
+	private void init(int rows, int columns, int connect, long[] zobrist, long[] mirrorZobrist) {
+		if (rows < 1 || rows > MAX_SIZE || columns < 1 || columns > MAX_SIZE) {
+			throw new IllegalArgumentException("rows and columns should be between 1 and " + MAX_SIZE);
+		}
+		if (connect < 2 || connect > Math.max(rows, columns)) {
+			throw new IllegalArgumentException("connect should be between 2 and the longest side of the board");
+		}
+		this.rows = rows;
+		this.columns = columns;
+		this.connect = connect;
+		stride = rows + 1;
+		cells = columns * stride;
+		standard = rows == BOARD_ROW && columns == BOARD_COLUMN && connect == CONNECT;
+		if (zobrist != null) {
+			this.zobrist = zobrist;
+			this.mirrorZobrist = mirrorZobrist;
+		} else if (standard) {
+			this.zobrist = ZOBRIST;
+			this.mirrorZobrist = MIRROR_ZOBRIST;
+		} else {
+			this.zobrist = zobristKeys(stride, columns);
+			this.mirrorZobrist = mirrorKeys(this.zobrist, stride, columns);
+		}
+		xBoard = new long[(cells + 63) >>> 6];
+		oBoard = new long[xBoard.length];
+		height = new int[columns];
+		history = new int[rows * columns];
+		historyLength = 0;
+		historyEnd = 0;
+	}
+
+	/**
+	 * getRows()
+	 * @return the number of rows of the board
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * getColumns()
+	 * @return the number of columns of the board
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * getConnect()
+	 * @return the number of tokens in a line that wins
+	 */
+	public int getConnect() {
+		return connect;
+	}
+
+	/**
+	 * isStandard()
+	 * @return true for the 6 by 7 board with connect 4, the only one the bitboard methods and the AI engines know
+	 */
+	public boolean isStandard() {
+		return standard;
+	}
+
+	/**
+	 * addMoveListener()
+	 * @param listener the listener to tell about every move
+	 */
+	public synchronized void addMoveListener(Connect4MoveListener listener) {
+		Connect4MoveListener[] more = java.util.Arrays.copyOf(listeners, listeners.length + 1);
+		more[listeners.length] = listener;
+		listeners = more;
+	}
+
+	/**
+	 * removeMoveListener()
+	 * @param listener the listener to remove, nothing happens if it wasn't added
+	 */
+	public synchronized void removeMoveListener(Connect4MoveListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				Connect4MoveListener[] fewer = new Connect4MoveListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, fewer, 0, i);
+				System.arraycopy(listeners, i + 1, fewer, i, fewer.length - i);
+				listeners = fewer;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * setPublishing()
+	 * publish a Connect4Position after every move, so other threads can read the board with getPosition().
+	 * it is off by default, since each position is a new object.
+	 * call it on the thread that makes the moves, the current board is published right away.
+	 * @param publishing true to publish the positions, false to stop
+	 */
+	public void setPublishing(boolean publishing) {
+		this.publishing = publishing;
+		if (publishing) {
+			publish();
+		} else {
+			position = null;
+		}
+	}
+
+	/**
+	 * isPublishing()
+	 * @return true if a position is published after every move
+	 */
+	public boolean isPublishing() {
+		return publishing;
+	}
+
+	/**
+	 * getPosition()
+	 * the board after the last move, from any thread and without a lock.
+	 * the searches of the AI with makeMove() are never seen, only the moves of the game.
+	 * @return the last published position, null if publishing is off
+	 */
+	public Connect4Position getPosition() {
+		return position;
+	}
+
+	/**
+	 * publish()
+	 * replace the published position with the current board, if publishing is on.
+	 */
+	private void publish() {
+		if (publishing) {
+			position = new Connect4Position(this, xBoard.clone(), oBoard.clone(), ++sequence);
+		}
+	}
+
+	/**
+	 * copy()
+	 * make a copy of the board without the observers, so another thread can search it.
+	 * @return the copy of the model
+	 */
+	public Connect4Model copy() {
+		Connect4Model copy = new Connect4Model(this);
+		System.arraycopy(xBoard, 0, copy.xBoard, 0, xBoard.length);
+		System.arraycopy(oBoard, 0, copy.oBoard, 0, oBoard.length);
+		System.arraycopy(height, 0, copy.height, 0, columns);
+		copy.moveCount = moveCount;
+		copy.hash = hash;
+		copy.mirrorHash = mirrorHash;
+		copy.lastRow = lastRow;
+		copy.lastColumn = lastColumn;
+		copy.winKnown = winKnown;
+		copy.xWon = xWon;
+		copy.oWon = oWon;
+		System.arraycopy(history, 0, copy.history, 0, historyEnd);
+		copy.historyLength = historyLength;
+		copy.historyEnd = historyEnd;
+		return copy;
+	}
+
+	/**
+	 * clear()
+	 * remove every token from the board.
+	 */
+	public void clear() {
+		Arrays.fill(xBoard, 0L);
+		Arrays.fill(oBoard, 0L);
+		Arrays.fill(height, 0);
+		moveCount = 0;
+		hash = 0L;
+		mirrorHash = 0L;
+		lastRow = -1;
+		lastColumn = -1;
+		winKnown = true;
+		xWon = false;
+		oWon = false;
+		historyLength = 0;
+		historyEnd = 0;
+		publish();
+	}
+
+	/**
+	 * setPosition()
+	 * load a whole standard board at once, e.g. from the opening book.
+	 * @param xBoard the bitboard of the human's tokens
+	 * @param oBoard the bitboard of the computer's tokens
+	 * @throws IllegalArgumentException if the bitboards are not a board that can be reached in a game
+	 */
+	public void setPosition(long xBoard, long oBoard) {
+		requireStandard();
+		setPosition(new long[] {xBoard}, new long[] {oBoard});
+	}
+
+	/**
+	 * setPosition()
+	 * load a whole board of any size at once, e.g. from a saved game.
+	 * @param xBoard the bitboard of the human's tokens, as many longs as getXBoards()
+	 * @param oBoard the bitboard of the computer's tokens
+	 * @throws IllegalArgumentException if the bitboards are not a board that can be reached in a game
+	 */
+	public void setPosition(long[] xBoard, long[] oBoard) {
+		if (xBoard.length != this.xBoard.length || oBoard.length != this.oBoard.length) {
+			throw new IllegalArgumentException("the bitboards are for another board size");
+		}
+		int xCount = 0;
+		int oCount = 0;
+		for (int i = 0; i < xBoard.length; i++) {
+			if ((xBoard[i] & oBoard[i]) != 0) {
+				throw new IllegalArgumentException("tokens on the same place");
+			}
+			xCount += Long.bitCount(xBoard[i]);
+			oCount += Long.bitCount(oBoard[i]);
+		}
+		for (int pos = 0; pos < xBoard.length * 64; pos++) {
+			if ((pos >= cells || pos % stride == rows) && (isSet(xBoard, pos) || isSet(oBoard, pos))) {
+				throw new IllegalArgumentException("tokens outside the board");
+			}
+		}
+		if (xCount != oCount && xCount != oCount + 1) {
+			throw new IllegalArgumentException("wrong number of tokens for each player");
+		}
+		for (int j = 0; j < columns; j++) {
+			for (int r = 1; r < rows; r++) {
+				int pos = j * stride + r;
+				if ((isSet(xBoard, pos) || isSet(oBoard, pos)) && !isSet(xBoard, pos - 1) && !isSet(oBoard, pos - 1)) {
+					throw new IllegalArgumentException("a token is floating in column " + j);
+				}
 			}
 		}
+		System.arraycopy(xBoard, 0, this.xBoard, 0, xBoard.length);
+		System.arraycopy(oBoard, 0, this.oBoard, 0, oBoard.length);
+		hash = 0L;
+		mirrorHash = 0L;
+		for (int i = 0; i < xBoard.length; i++) {
+			for (long b = xBoard[i]; b != 0; b &= b - 1) {
+				toggle(2 * (64 * i + Long.numberOfTrailingZeros(b)));
+			}
+			for (long b = oBoard[i]; b != 0; b &= b - 1) {
+				toggle(2 * (64 * i + Long.numberOfTrailingZeros(b)) + 1);
+			}
+		}
+		for (int j = 0; j < columns; j++) {
+			updateHeight(j);
+		}
+		moveCount = xCount + oCount;
+		lastRow = -1;
+		lastColumn = -1;
+		winKnown = false;
+		historyLength = 0;
+		historyEnd = 0;
+		publish();
 	}
-	
+
+	/**
+	 * setVal()
+	 * set a single place of the board to "X", "O" or "_".
+	 * @param row the row of the board
+	 * @param col the column of the board
+	 * @param s the marker to put there
+	 */
 	public void setVal(int row, int col, String s) {
-		board[row][col]=s; 
+		int pos = position(row, col);
+		if (isSet(xBoard, pos)) {
+			toggle(2 * pos);
+			moveCount--;
+		} else if (isSet(oBoard, pos)) {
+			toggle(2 * pos + 1);
+			moveCount--;
+		}
+		clearBit(xBoard, pos);
+		clearBit(oBoard, pos);
+		if (s.equals("X")) {
+			setBit(xBoard, pos);
+			toggle(2 * pos);
+			moveCount++;
+		} else if (s.equals("O")) {
+			setBit(oBoard, pos);
+			toggle(2 * pos + 1);
+			moveCount++;
+		}
+		updateHeight(col);
+		lastRow = -1;
+		lastColumn = -1;
+		winKnown = false;
+		historyLength = 0;
+		historyEnd = 0;
+		publish();
 	}
-	
+
 	/**
 	 * placeX()
-	 * it's human turn, human play the X on the board, and set the change to the view class, 
+	 * it's human turn, human play the X on the board, and set the change to the view class,
 	 * which contains the row, column and color.
 	 * @param row the row of the board
 	 * @param column the column of the board
 	 */
 	public void placeX(int row, int column){
-		board[row][column] = "X";
-		Connect4MoveMessage message = new Connect4MoveMessage(row, column, Color.YELLOW);
-		setChanged();
-		notifyObservers(message);
+		place(row, column, true);
+		historyEnd = historyLength; // a new move, the undone ones can't be redone anymore
+		moveMade(row, column, true);
 	}
-	
+
 	/**
 	 * placeO()
 	 * it's computer turn, human play the O on the board, and set the change to the view class,
@@ -56,10 +469,149 @@ public class Connect4Model extends Observable implements java.io.Serializable{
 	 * @param column the column of the board
 	 */
 	public void placeO(int row, int column) {
-		board[row][column] = "O";
-		Connect4MoveMessage message = new Connect4MoveMessage(row, column, Color.RED);
-		setChanged();
-		notifyObservers(message);
+		place(row, column, false);
+		historyEnd = historyLength;
+		moveMade(row, column, false);
+	}
+
+	/**
+	 * place()
+	 * put a token on the board and push it on the history, without telling anyone.
+	 * @param row the row of the board
+	 * @param column the column of the board
+	 * @param x true for the human's token, false for the computer's
+	 * @throws IllegalStateException if the history is full, i.e. moves of placeX() or placeO() were taken back
+	 * with unmakeMove() instead of undo()
+	 */
+	private void place(int row, int column, boolean x) {
+		int pos = position(row, column);
+		if (historyLength == history.length) {
+			throw new IllegalStateException("the history is full, take back placed moves with undo()");
+		}
+		history[historyLength++] = pos | (x ? 0 : O_MOVE) | (winKnown ? WIN_KNOWN : 0)
+				| (xWon ? X_WON : 0) | (oWon ? O_WON : 0);
+		long[] b = x ? xBoard : oBoard;
+		setBit(b, pos);
+		toggle(2 * pos + (x ? 0 : 1));
+		height[column] = Math.max(height[column], rows - row);
+		moveCount++;
+		lastRow = row;
+		lastColumn = column;
+		if (winKnown) {
+			if (x) {
+				xWon = xWon || winsAt(b, pos);
+			} else {
+				oWon = oWon || winsAt(b, pos);
+			}
+		}
+	}
+
+	/**
+	 * canUndo()
+	 * @return true if there is a move of the game to take back
+	 */
+	public boolean canUndo() {
+		return historyLength > 0;
+	}
+
+	/**
+	 * canRedo()
+	 * @return true if a move was taken back and can be played again
+	 */
+	public boolean canRedo() {
+		return historyLength < historyEnd;
+	}
+
+	/**
+	 * undo()
+	 * take back the last move of the game in constant time: the bitboards, the hashes, the height of the column,
+	 * the win status and the last move go back to what they were before it.
+	 * the listeners hear moveUndone(), and the observers get one Connect4MoveMessage of the place, in white.
+	 * @throws IllegalStateException if there is no move to take back
+	 */
+	public void undo() {
+		if (historyLength == 0) {
+			throw new IllegalStateException("no move to undo");
+		}
+		int move = history[--historyLength];
+		int pos = move & POS_MASK;
+		boolean x = (move & O_MOVE) == 0;
+		int column = pos / stride;
+		int r = pos - column * stride;
+		if (x) {
+			clearBit(xBoard, pos);
+			toggle(2 * pos);
+		} else {
+			clearBit(oBoard, pos);
+			toggle(2 * pos + 1);
+		}
+		if (height[column] == r + 1) {
+			height[column] = r;
+		}
+		moveCount--;
+		winKnown = (move & WIN_KNOWN) != 0;
+		xWon = (move & X_WON) != 0;
+		oWon = (move & O_WON) != 0;
+		if (historyLength > 0) {
+			int before = history[historyLength - 1] & POS_MASK;
+			lastColumn = before / stride;
+			lastRow = rows - 1 - (before - lastColumn * stride);
+		} else {
+			lastRow = -1;
+			lastColumn = -1;
+		}
+		publish();
+		int row = rows - 1 - r;
+		Connect4MoveListener[] current = listeners;
+		if (current.length > 0) {
+			int packed = Connect4MoveListener.pack(row, column, x);
+			for (Connect4MoveListener listener : current) {
+				listener.moveUndone(packed);
+			}
+		}
+		if (countObservers() > 0) {
+			setChanged();
+			notifyObservers(new Connect4MoveMessage(row, column, Color.WHITE));
+		}
+	}
+
+	/**
+	 * redo()
+	 * play the last move taken back by undo() again, it is told like any other move.
+	 * @throws IllegalStateException if there is no move to play again
+	 */
+	public void redo() {
+		if (historyLength == historyEnd) {
+			throw new IllegalStateException("no move to redo");
+		}
+		int pos = history[historyLength] & POS_MASK;
+		boolean x = (history[historyLength] & O_MOVE) == 0;
+		int column = pos / stride;
+		int row = rows - 1 - (pos - column * stride);
+		place(row, column, x);
+		moveMade(row, column, x);
+	}
+
+	/**
+	 * moveMade()
+	 * publish the position, then tell the listeners about a move, then the observers if there are any.
+	 * @param row the row of the move
+	 * @param column the column of the move
+	 * @param x true for the human's token, false for the computer's
+	 */
+	private void moveMade(int row, int column, boolean x) {
+		publish();
+		Connect4MoveListener[] current = listeners;
+		if (current.length > 0) {
+			int move = Connect4MoveListener.pack(row, column, x);
+			for (Connect4MoveListener listener : current) {
+				listener.moveMade(move);
+			}
+		}
+		if (countObservers() > 0) {
+			setChanged();
+			notifyObservers(new Connect4MoveMessage(row, column, x ? Color.YELLOW : Color.RED));
+		}
 	}
 	/**
 	 * getAtLocation();
@@ -69,6 +621,576 @@ public class Connect4Model extends Observable implements java.io.Serializable{
 	 * @return the corresponding string
 	 */
 	public String getAtLocation(int row, int column) {
-		return board[row][column];
+		int pos = position(row, column);
+		if (isSet(xBoard, pos)) {
+			return "X";
+		}
+		if (isSet(oBoard, pos)) {
+			return "O";
+		}
+		return "_";
+	}
+
+	/**
+	 * getXBoard()
+	 * @return the bitboard of the human's tokens, the first 64 places only, which is the whole standard board
+	 */
+	public long getXBoard() {
+		return xBoard[0];
+	}
+
+	/**
+	 * getOBoard()
+	 * @return the bitboard of the computer's tokens, the first 64 places only, which is the whole standard board
+	 */
+	public long getOBoard() {
+		return oBoard[0];
+	}
+
+	/**
+	 * getXBoards()
+	 * @return a copy of the whole bitboard of the human's tokens, 64 places per long
+	 */
+	public long[] getXBoards() {
+		return xBoard.clone();
+	}
+
+	/**
+	 * getOBoards()
+	 * @return a copy of the whole bitboard of the computer's tokens, 64 places per long
+	 */
+	public long[] getOBoards() {
+		return oBoard.clone();
+	}
+
+	/**
+	 * getHeight()
+	 * @param column the column of the board
+	 * @return the number of tokens in the column
+	 */
+	public int getHeight(int column) {
+		return height[column];
+	}
+
+	/**
+	 * isColumnFull()
+	 * @param column the column of the board
+	 * @return true if no more token can be put in the column
+	 */
+	public boolean isColumnFull(int column) {
+		return height[column] == rows;
+	}
+
+	/**
+	 * getDropRow()
+	 * get the row a token would land on when dropped in the column.
+	 * @param column the column of the board
+	 * @return the row number, -1 if the column is full
+	 */
+	public int getDropRow(int column) {
+		return rows - 1 - height[column];
+	}
+
+	/**
+	 * getMoveCount()
+	 * @return the number of tokens on the board
+	 */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * isXTurn()
+	 * the human always plays first, so it is X's turn when the number of tokens is even.
+	 * @return true if X plays next
+	 */
+	public boolean isXTurn() {
+		return (moveCount & 1) == 0;
+	}
+
+	/**
+	 * getCurrentBoard()
+	 * @return the bitboard of the player who plays next, the first 64 places only
+	 */
+	public long getCurrentBoard() {
+		return isXTurn() ? xBoard[0] : oBoard[0];
+	}
+
+	/**
+	 * getHash()
+	 * @return the Zobrist hash of the board, it is kept up to date by every move
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * getMirrorHash()
+	 * @return the Zobrist hash of the board seen in a mirror, left and right swapped
+	 */
+	public long getMirrorHash() {
+		return mirrorHash;
+	}
+
+	/**
+	 * getCanonicalHash()
+	 * a board and its mirror have the same value and the same best move mirrored,
+	 * so the caches and the book store them once under the smaller of the two hashes.
+	 * @return the hash of the board or of its mirror, the same for both
+	 */
+	public long getCanonicalHash() {
+		return Math.min(hash, mirrorHash);
+	}
+
+	/**
+	 * isMirrored()
+	 * @return true if the canonical hash is the one of the mirror,
+	 * the moves stored under it are then mirrored with mirrorColumn()
+	 */
+	public boolean isMirrored() {
+		return mirrorHash < hash;
+	}
+
+	/**
+	 * mirrorColumn()
+	 * @param column a column of the standard board
+	 * @return the same column seen in a mirror
+	 */
+	public static int mirrorColumn(int column) {
+		return BOARD_COLUMN - 1 - column;
+	}
+
+	/**
+	 * mirror()
+	 * @param b a bitboard of the standard board
+	 * @return the bitboard seen in a mirror, the columns in the other order
+	 */
+	public static long mirror(long b) {
+		long m = 0L;
+		long column = (1L << HEIGHT) - 1;
+		for (int j = 0; j < BOARD_COLUMN; j++) {
+			m |= ((b >>> (j * HEIGHT)) & column) << (mirrorColumn(j) * HEIGHT);
+		}
+		return m;
+	}
+
+	/**
+	 * getMask()
+	 * @return the bitboard of every place that has a token, the first 64 places only
+	 */
+	public long getMask() {
+		return xBoard[0] | oBoard[0];
+	}
+
+	/**
+	 * canPlay()
+	 * @param column the column of the board
+	 * @return true if the column is on the board and not full
+	 */
+	public boolean canPlay(int column) {
+		return column >= 0 && column < columns && height[column] < rows;
+	}
+
+	/**
+	 * isWinningMove()
+	 * check if the player who plays next gets a line by playing in the column.
+	 * @param column a column that is not full
+	 * @return true if the move wins the game
+	 */
+	public boolean isWinningMove(int column) {
+		int pos = column * stride + height[column];
+		if (standard) {
+			return isWin(getCurrentBoard() | (1L << pos));
+		}
+		return winsAt(isXTurn() ? xBoard : oBoard, pos);
+	}
+
+	/**
+	 * isBlockingMove()
+	 * check if the other player would get a line by playing in the column, so the player who plays next
+	 * should play there first.
+	 * @param column a column that is not full
+	 * @return true if the move blocks a win of the other player
+	 */
+	public boolean isBlockingMove(int column) {
+		int pos = column * stride + height[column];
+		if (standard) {
+			return isWin((getCurrentBoard() ^ getMask()) | (1L << pos));
+		}
+		return winsAt(isXTurn() ? oBoard : xBoard, pos);
+	}
+
+	/**
+	 * makeMove()
+	 * play a token for the player who plays next, without telling the observers.
+	 * it is meant for the AI search, which tries a move and takes it back with unmakeMove(),
+	 * the cached win status and the last move are left alone, they are right again once every move is taken back.
+	 * @param column a column that is not full
+	 */
+	public void makeMove(int column) {
+		int pos = column * stride + height[column];
+		if (isXTurn()) {
+			setBit(xBoard, pos);
+			toggle(2 * pos);
+		} else {
+			setBit(oBoard, pos);
+			toggle(2 * pos + 1);
+		}
+		height[column]++;
+		moveCount++;
+	}
+
+	/**
+	 * unmakeMove()
+	 * take back the last token played in the column by makeMove().
+	 * the moves of placeX() and placeO() are in the history, take them back with undo() instead.
+	 * @param column the column of the last move
+	 */
+	public void unmakeMove(int column) {
+		height[column]--;
+		moveCount--;
+		int pos = column * stride + height[column];
+		if (isSet(xBoard, pos)) {
+			clearBit(xBoard, pos);
+			toggle(2 * pos);
+		} else {
+			clearBit(oBoard, pos);
+			toggle(2 * pos + 1);
+		}
+	}
+
+	/**
+	 * isFull()
+	 * @return true if there is no empty place left on the board
+	 */
+	public boolean isFull() {
+		return moveCount == rows * columns;
+	}
+
+	/**
+	 * getLastRow()
+	 * @return the row of the last placed token, -1 if it is unknown
+	 */
+	public int getLastRow() {
+		return lastRow;
+	}
+
+	/**
+	 * getLastColumn()
+	 * @return the column of the last placed token, -1 if it is unknown
+	 */
+	public int getLastColumn() {
+		return lastColumn;
+	}
+
+	/**
+	 * xWins()
+	 * @return true if the human has a line
+	 */
+	public boolean xWins() {
+		if (!winKnown) {
+			checkWholeBoard();
+		}
+		return xWon;
+	}
+
+	/**
+	 * oWins()
+	 * @return true if the computer has a line
+	 */
+	public boolean oWins() {
+		if (!winKnown) {
+			checkWholeBoard();
+		}
+		return oWon;
+	}
+
+	/**
+	 * checkWinAt()
+	 * check only the four lines going through one place, so a move can be checked
+	 * without scanning the whole board.
+	 * @param row the row of the board
+	 * @param column the column of the board
+	 * @return true if the token at the place is part of a winning line
+	 */
+	public boolean checkWinAt(int row, int column) {
+		int pos = position(row, column);
+		if (isSet(xBoard, pos)) {
+			return winsAt(xBoard, pos);
+		}
+		if (isSet(oBoard, pos)) {
+			return winsAt(oBoard, pos);
+		}
+		return false;
+	}
+
+	/**
+	 * winsAt()
+	 * @param b the bitboard of one player
+	 * @param pos the bit of a place, the token there is counted whether it is set or not
+	 * @return true if a token at the place makes a line of connect tokens
+	 */
+	private boolean winsAt(long[] b, int pos) {
+		return countLine(b, pos, 1) >= connect || countLine(b, pos, stride) >= connect
+				|| countLine(b, pos, stride - 1) >= connect || countLine(b, pos, stride + 1) >= connect;
+	}
+
+	/**
+	 * countLine()
+	 * count the tokens in a line through a place, in both directions.
+	 * going past the edge of a column always lands on the empty top bit, so the count stops there.
+	 * @param b the bitboard of one player
+	 * @param pos the bit of the place
+	 * @param step the distance between two bits of the line
+	 * @return the number of tokens in a row, it stops counting at connect
+	 */
+	private int countLine(long[] b, int pos, int step) {
+		int count = 1;
+		for (int p = pos + step; p < cells && count < connect && isSet(b, p); p += step) {
+			count++;
+		}
+		for (int p = pos - step; p >= 0 && count < connect && isSet(b, p); p -= step) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * checkWholeBoard()
+	 * check both players on the whole board, only needed after the board was edited directly.
+	 */
+	private void checkWholeBoard() {
+		if (standard) {
+			xWon = isWin(xBoard[0]);
+			oWon = isWin(oBoard[0]);
+		} else {
+			xWon = false;
+			oWon = false;
+			for (int pos = 0; pos < cells; pos++) {
+				xWon = xWon || (isSet(xBoard, pos) && winsAt(xBoard, pos));
+				oWon = oWon || (isSet(oBoard, pos) && winsAt(oBoard, pos));
+			}
+		}
+		winKnown = true;
+	}
+
+	/**
+	 * isWin()
+	 * check the four directions at once: vertical (1), horizontal (HEIGHT) and the two diagonals.
+	 * @param b the bitboard of one player on the standard board
+	 * @return true if the bitboard has four in a line
+	 */
+	public static boolean isWin(long b) {
+		long m = b & (b >>> 1);
+		if ((m & (m >>> 2)) != 0) {
+			return true;
+		}
+		m = b & (b >>> HEIGHT);
+		if ((m & (m >>> (2 * HEIGHT))) != 0) {
+			return true;
+		}
+		m = b & (b >>> (HEIGHT - 1));
+		if ((m & (m >>> (2 * (HEIGHT - 1)))) != 0) {
+			return true;
+		}
+		m = b & (b >>> (HEIGHT + 1));
+		return (m & (m >>> (2 * (HEIGHT + 1)))) != 0;
+	}
+
+	/**
+	 * winningCells()
+	 * find the empty places that would give the player four in a line.
+	 * @param b the bitboard of one player on the standard board
+	 * @param mask the bitboard of every place that has a token
+	 * @return the bitboard of the empty places that complete a line
+	 */
+	public static long winningCells(long b, long mask) {
+		long r = (b << 1) & (b << 2) & (b << 3); // vertical
+		r |= lineEnds(b, HEIGHT); // horizontal
+		r |= lineEnds(b, HEIGHT - 1); // diagonal
+		r |= lineEnds(b, HEIGHT + 1); // other diagonal
+		return r & (FULL_MASK ^ mask);
+	}
+
+	/**
+	 * lineEnds()
+	 * find the places that complete three tokens of one direction into four, including the gaps.
+	 * @param b the bitboard of one player
+	 * @param step the distance between two bits of the line
+	 * @return the bitboard of the places
+	 */
+	private static long lineEnds(long b, int step) {
+		long p = (b << step) & (b << (2 * step));
+		long r = p & (b << (3 * step));
+		r |= p & (b >>> step);
+		p = (b >>> step) & (b >>> (2 * step));
+		r |= p & (b << step);
+		r |= p & (b >>> (3 * step));
+		return r;
+	}
+
+	/**
+	 * position()
+	 * @param row the row of the board, row 0 is the top
+	 * @param column the column of the board
+	 * @return the index of the place in the bitboards
+	 */
+	private int position(int row, int column) {
+		return column * stride + rows - 1 - row;
+	}
+
+	private static boolean isSet(long[] b, int pos) {
+		return (b[pos >>> 6] & (1L << pos)) != 0;
+	}
+
+	private static void setBit(long[] b, int pos) {
+		b[pos >>> 6] |= 1L << pos;
+	}
+
+	private static void clearBit(long[] b, int pos) {
+		b[pos >>> 6] &= ~(1L << pos);
+	}
+
+	/**
+	 * requireStandard()
+	 * @throws IllegalArgumentException if the board is not the standard one
+	 */
+	private void requireStandard() {
+		if (!standard) {
+			throw new IllegalArgumentException("only the standard board has a one long bitboard");
+		}
+	}
+
+	/**
+	 * zobristKey()
+	 * the numbers of SplittableRandom with a fixed seed, computed one at a time from the index
+	 * with its mixing function, so any board size gets its numbers and the standard board keeps its old ones.
+	 * @param index the index of the number
+	 * @return the random number
+	 */
+	static long zobristKey(int index) {
+		long z = ZOBRIST_SEED + (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * zobristKeys()
+	 * @param stride the bits of a column
+	 * @param columns the number of columns
+	 * @return a random number for each place and player
+	 */
+	private static long[] zobristKeys(int stride, int columns) {
+		long[] keys = new long[2 * stride * columns];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = zobristKey(i);
+		}
+		return keys;
+	}
+
+	/**
+	 * mirrorKeys()
+	 * @param keys the numbers of the places
+	 * @param stride the bits of a column
+	 * @param columns the number of columns
+	 * @return the random number of the mirrored place, for each place and player
+	 */
+	private static long[] mirrorKeys(long[] keys, int stride, int columns) {
+		long[] mirrored = new long[keys.length];
+		for (int pos = 0; pos < stride * columns; pos++) {
+			int other = (columns - 1 - pos / stride) * stride + pos % stride;
+			mirrored[2 * pos] = keys[2 * other];
+			mirrored[2 * pos + 1] = keys[2 * other + 1];
+		}
+		return mirrored;
+	}
+
+	/**
+	 * toggle()
+	 * add or remove one token from both hashes.
+	 * @param key the index of the token's number, 2 * place for X and 2 * place + 1 for O
+	 */
+	private void toggle(int key) {
+		hash ^= zobrist[key];
+		mirrorHash ^= mirrorZobrist[key];
+	}
+
+	/**
+	 * every playable place of the standard board, without the empty bit on top of each column.
+	 */
+	static final long FULL_MASK = fullMask();
+
+	private static long fullMask() {
+		long mask = 0L;
+		for (int j = 0; j < BOARD_COLUMN; j++) {
+			mask |= ((1L << BOARD_ROW) - 1) << (j * HEIGHT);
+		}
+		return mask;
+	}
+
+	/**
+	 * updateHeight()
+	 * recount the tokens of a column after it was edited directly: the highest token sets the height.
+	 * @param column the column of the board
+	 */
+	private void updateHeight(int column) {
+		int h = rows;
+		while (h > 0 && !isSet(xBoard, column * stride + h - 1) && !isSet(oBoard, column * stride + h - 1)) {
+			h--;
+		}
+		height[column] = h;
+	}
+
+	/**
+	 * writeObject()
+	 * write the board out as the old String[][] so saved games can still be read.
+	 * @param out the stream to write to
+	 * @throws IOException if the stream can't be written
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		String[][] board = new String[rows][columns];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++) {
+				board[i][j] = getAtLocation(i, j);
+			}
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("board", board);
+		fields.put("connect", connect);
+		out.writeFields();
+	}
+
+	/**
+	 * readObject()
+	 * read the old String[][] board back and pack it into the bitboards, its size is the size of the board.
+	 * @param in the stream to read from
+	 * @throws IOException if the stream can't be read
+	 * @throws ClassNotFoundException if the saved class is unknown
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		String[][] board = (String[][]) fields.get("board", null);
+		int connect = fields.get("connect", CONNECT);
+		listeners = NO_LISTENERS;
+		lastRow = -1;
+		lastColumn = -1;
+		winKnown = true;
+		try {
+			if (board != null && board.length > 0) {
+				init(board.length, board[0].length, connect, null, null);
+			} else {
+				init(BOARD_ROW, BOARD_COLUMN, connect, null, null);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new java.io.InvalidObjectException(e.getMessage());
+		}
+		if (board != null) {
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < columns; j++) {
+					setVal(i, j, board[i][j]);
+				}
+			}
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Connect4MoveEvent
+ * the Java Flight Recorder event of a move, committed by the controller when it has metrics.
+ * it costs almost nothing when no recording is running, and shows up in JDK Mission Control
+ * or "jfr print --events connect4.Move" when one is, e.g. with -XX:StartFlightRecording.
+ * @author wentao
+ *
+ */
+@Name("connect4.Move")
+@Label("Connect4 Move")
+@Category("Connect4")
+@Description("A move of the human or the computer")
+public class Connect4MoveEvent extends Event {
+	@Label("Player")
+	String player;
+
+	@Label("Column")
+	int column;
+
+	@Label("Move Count")
+	int moveCount;
+
+	@Label("Source")
+	@Description("The counter of the computer's move, e.g. computer.book or computer.engine")
+	String source;
+
+	@Label("Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long nanos;
+
+	/**
+	 * commit()
+	 * commit the event of a move if a recording wants it.
+	 * @param player "X" or "O"
+	 * @param column the column of the move
+	 * @param moveCount the number of tokens on the board after the move
+	 * @param source the counter of where the computer's move came from, see Connect4Metrics, null for the human
+	 * @param nanos the time the move took
+	 */
+	static void commit(String player, int column, int moveCount, String source, long nanos) {
+		Connect4MoveEvent event = new Connect4MoveEvent();
+		if (event.shouldCommit()) {
+			event.player = player;
+			event.column = column;
+			event.moveCount = moveCount;
+			event.source = source;
+			event.nanos = nanos;
+			event.commit();
+		}
+	}
+}
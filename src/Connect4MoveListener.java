@@ -0,0 +1,65 @@
+/**
+ * Connect4MoveListener
+ * hears every token put on the board by placeX(), placeO() and redo(), and taken back by undo(),
+ * without creating any object per move:
+ * the move comes packed into one int, read it with row(), column() and isX().
+ * it is meant for the listeners that don't draw, like the autosave or a server, the view still gets a
+ * Connect4MoveMessage as an Observer.
+ * @author wentao
+ *
+ */
+public interface Connect4MoveListener {
+	/**
+	 * moveMade()
+	 * a token was put on the board, called on the thread that made the move.
+	 * @param move the packed move
+	 */
+	void moveMade(int move);
+
+	/**
+	 * moveUndone()
+	 * the last token was taken back by undo(), called on the thread that took it back.
+	 * a move played again by redo() comes through moveMade() like any other.
+	 * @param move the packed move that was taken back
+	 */
+	default void moveUndone(int move) {
+	}
+
+	/**
+	 * pack()
+	 * @param row the row of the board
+	 * @param column the column of the board
+	 * @param x true for the human's token, false for the computer's
+	 * @return the move packed into an int: the row in bits 0-7, the column in bits 8-15 and the player in bit 16
+	 */
+	static int pack(int row, int column, boolean x) {
+		return row | (column << 8) | (x ? 0 : 1 << 16);
+	}
+
+	/**
+	 * row()
+	 * @param move a packed move
+	 * @return the row of the move
+	 */
+	static int row(int move) {
+		return move & 0xFF;
+	}
+
+	/**
+	 * column()
+	 * @param move a packed move
+	 * @return the column of the move
+	 */
+	static int column(int move) {
+		return (move >>> 8) & 0xFF;
+	}
+
+	/**
+	 * isX()
+	 * @param move a packed move
+	 * @return true if the human played the move
+	 */
+	static boolean isX(int move) {
+		return (move & (1 << 16)) == 0;
+	}
+}
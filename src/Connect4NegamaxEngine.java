@@ -0,0 +1,447 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connect4NegamaxEngine
+ * the AI that searches the moves with negamax and alpha-beta pruning.
+ * the moves are tried on the model with makeMove() and taken back with unmakeMove(), so the search
+ * doesn't copy the board or create any object while it runs.
+ * with a transposition table, positions reached again through other moves are looked up instead of searched,
+ * and the best move stored for a position is tried first. a position and its mirror share one entry.
+ * @author wentao
+ *
+ */
+public class Connect4NegamaxEngine implements Connect4Engine {
+	/**
+	 * the score of a win, a win after fewer moves scores higher.
+	 */
+	static final int WIN_SCORE = 1000000;
+	static final int INFINITY = 2 * WIN_SCORE;
+
+	/**
+	 * the columns from the center to the edges, the center ones are usually better so they are tried first.
+	 */
+	static final int[] MOVE_ORDER = centerFirst(Connect4Model.BOARD_COLUMN);
+
+	/**
+	 * the longest game, so the deepest a search can go.
+	 */
+	static final int MAX_PLY = Connect4Model.BOARD_ROW * Connect4Model.BOARD_COLUMN + 1;
+
+	/**
+	 * how far from the last score the narrow window of the next depth goes.
+	 */
+	static final int ASPIRATION_WINDOW = 32;
+
+	private int depth;
+	private long nodes;
+	private long tableProbes;
+	private long tableHits;
+	private Connect4Model model;
+	private volatile boolean stopped;
+	private volatile AtomicBoolean stopToken;
+	private long timeBudgetMillis;
+	private long deadline;
+	private int rootMoves;
+	private int completedDepth;
+	private int lastScore;
+	private long elapsedNanos;
+	/**
+	 * the best line found at each ply of the current search, and the one of the last finished depth.
+	 */
+	private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+	private final int[] pvLength = new int[MAX_PLY + 1];
+	private final int[] prevPv = new int[MAX_PLY + 1];
+	private int prevPvLength;
+	private boolean followPv;
+	private final Connect4TranspositionTable table;
+
+	/**
+	 * the constructor of the engine, without a transposition table.
+	 * @param depth how many moves ahead the engine searches
+	 */
+	public Connect4NegamaxEngine(int depth) {
+		this(depth, null);
+	}
+
+	/**
+	 * the constructor of the engine.
+	 * @param depth how many moves ahead the engine searches
+	 * @param table the transposition table, null to search without one
+	 */
+	public Connect4NegamaxEngine(int depth, Connect4TranspositionTable table) {
+		setDepth(depth);
+		this.table = table;
+	}
+
+	/**
+	 * setDepth()
+	 * @param depth how many moves ahead the engine searches, at least 1
+	 */
+	public void setDepth(int depth) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("depth should be at least 1");
+		}
+		this.depth = depth;
+	}
+
+	/**
+	 * setTimeBudget()
+	 * limit the time of every search, the engine then searches one move deeper at a time
+	 * until the time is up or the depth is reached, and plays the move of the last depth it finished.
+	 * @param millis the time for one move in milliseconds, 0 to always search to the full depth
+	 */
+	@Override
+	public void setTimeBudget(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("the time budget can't be negative");
+		}
+		this.timeBudgetMillis = millis;
+	}
+
+	/**
+	 * getTimeBudget()
+	 * @return the time for one move in milliseconds, 0 if there is no limit
+	 */
+	public long getTimeBudget() {
+		return timeBudgetMillis;
+	}
+
+	/**
+	 * getCompletedDepth()
+	 * @return the deepest search finished by the last move
+	 */
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+
+	/**
+	 * getScore()
+	 * @return the score of the last move, for the player who made it
+	 */
+	public int getScore() {
+		return lastScore;
+	}
+
+	/**
+	 * getElapsedNanos()
+	 * @return how long the last search took
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * getElapsedMillis()
+	 * @return how long the last search took in milliseconds
+	 */
+	public long getElapsedMillis() {
+		return elapsedNanos / 1000000;
+	}
+
+	/**
+	 * getDepth()
+	 * @return how many moves ahead the engine searches
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * getNodes()
+	 * @return the number of positions looked at by the last search
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * getTableProbes()
+	 * @return the number of times the last search looked a position up in the transposition table
+	 */
+	public long getTableProbes() {
+		return tableProbes;
+	}
+
+	/**
+	 * getTableHits()
+	 * @return the number of those lookups that found the position
+	 */
+	public long getTableHits() {
+		return tableHits;
+	}
+
+	/**
+	 * addStats()
+	 * add the nodes and the table lookups of the last search to the metrics.
+	 * @param metrics the metrics of the game
+	 */
+	@Override
+	public void addStats(Connect4Metrics metrics) {
+		metrics.count(Connect4Metrics.AI_SEARCHES, 1);
+		metrics.count(Connect4Metrics.AI_NODES, nodes);
+		metrics.count(Connect4Metrics.TABLE_PROBES, tableProbes);
+		metrics.count(Connect4Metrics.TABLE_HITS, tableHits);
+	}
+
+	/**
+	 * stop()
+	 * ask a running search to stop as soon as possible, it returns the best column found so far.
+	 */
+	@Override
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * setStopToken()
+	 * @param token the stop token of the next searches, null for none
+	 */
+	@Override
+	public void setStopToken(AtomicBoolean token) {
+		this.stopToken = token;
+	}
+
+	/**
+	 * clearStop()
+	 * clear the stop request when a search starts, unless the stop token is set.
+	 * the request is cleared before the token is read, so a stop() that comes with the token is never lost.
+	 */
+	private void clearStop() {
+		stopped = false;
+		if (stopToken != null && stopToken.get()) {
+			stopped = true;
+		}
+	}
+
+	/**
+	 * getTable()
+	 * @return the transposition table, null if there is none
+	 */
+	public Connect4TranspositionTable getTable() {
+		return table;
+	}
+
+	/**
+	 * bestMove()
+	 * play a winning move right away, otherwise search every column and keep the best score.
+	 * @param model the model of the game
+	 * @return the column to play, -1 if the board is full
+	 */
+	@Override
+	public int bestMove(Connect4Model model) {
+		if (!supports(model)) {
+			throw new IllegalArgumentException("the engine only plays the standard board");
+		}
+		clearStop();
+		if (table != null) {
+			table.newSearch();
+		}
+		return search(model);
+	}
+
+	/**
+	 * reset()
+	 * clear the stop request before a search is started from another thread.
+	 */
+	void reset() {
+		clearStop();
+	}
+
+	/**
+	 * search()
+	 * the search of bestMove(), without starting a new generation of the table
+	 * and without clearing the stop request, so several engines can share one table.
+	 * with a time budget it searches one move deeper at a time and keeps the move of the last depth it finished,
+	 * each depth starts with a narrow window around the last score and tries the last best line first.
+	 * @param model the model of the game
+	 * @return the column to play, -1 if the board is full
+	 */
+	int search(Connect4Model model) {
+		long start = System.nanoTime();
+		this.model = model;
+		nodes = 0;
+		tableProbes = 0;
+		tableHits = 0;
+		completedDepth = 0;
+		prevPvLength = 0;
+		rootMoves = model.getMoveCount();
+		deadline = timeBudgetMillis > 0 ? start + timeBudgetMillis * 1000000L : 0;
+		int bestColumn = -1;
+		int score = 0;
+		for (int column : MOVE_ORDER) {
+			if (model.canPlay(column)) {
+				if (model.isWinningMove(column)) {
+					bestColumn = column;
+					score = WIN_SCORE - rootMoves;
+					completedDepth = 1;
+					break;
+				}
+				if (bestColumn == -1) {
+					bestColumn = column;
+				}
+			}
+		}
+		if (bestColumn != -1 && completedDepth == 0) {
+			int maxDepth = Math.min(depth, MAX_PLY - 1 - rootMoves);
+			int first = deadline == 0 ? maxDepth : 1;
+			for (int d = first; d <= maxDepth; d++) {
+				int alpha = -INFINITY;
+				int beta = INFINITY;
+				if (d > first && Math.abs(score) < WIN_SCORE / 2) {
+					alpha = score - ASPIRATION_WINDOW;
+					beta = score + ASPIRATION_WINDOW;
+				}
+				followPv = true;
+				int result = negamax(d, alpha, beta);
+				if (!stopped && (result <= alpha || result >= beta)) {
+					followPv = true;
+					result = negamax(d, -INFINITY, INFINITY); // the score is outside the window, search again
+				}
+				if (stopped) {
+					break;
+				}
+				score = result;
+				bestColumn = pv[0][0];
+				completedDepth = d;
+				prevPvLength = pvLength[0];
+				System.arraycopy(pv[0], 0, prevPv, 0, prevPvLength);
+				if (Math.abs(score) >= WIN_SCORE / 2) {
+					break; // the result of the game is known, deeper searches won't change it
+				}
+			}
+		}
+		lastScore = score;
+		elapsedNanos = System.nanoTime() - start;
+		this.model = null;
+		return bestColumn;
+	}
+
+	/**
+	 * negamax()
+	 * the score of the position for the player who plays next.
+	 * it also builds the best line from this position, which is used to order the moves of the next depth.
+	 * @param depth how many more moves to search
+	 * @param alpha the score the player is already sure to get
+	 * @param beta the score the other player is already sure to get
+	 * @return the score of the position
+	 */
+	private int negamax(int depth, int alpha, int beta) {
+		int ply = model.getMoveCount() - rootMoves;
+		pvLength[ply] = ply;
+		nodes++;
+		if ((nodes & 1023) == 0 && deadline != 0 && System.nanoTime() - deadline > 0) {
+			stopped = true;
+		}
+		if (stopped) {
+			return 0;
+		}
+		if (model.getMoveCount() == Connect4Model.BOARD_ROW * Connect4Model.BOARD_COLUMN) {
+			return 0; // tie game
+		}
+		for (int column : MOVE_ORDER) {
+			if (model.canPlay(column) && model.isWinningMove(column)) {
+				return WIN_SCORE - model.getMoveCount();
+			}
+		}
+		if (depth == 0) {
+			return evaluate();
+		}
+		int alphaStart = alpha;
+		int tableMove = Connect4TranspositionTable.NO_MOVE;
+		boolean mirrored = model.isMirrored();
+		if (table != null) {
+			long entry = table.probe(model.getCanonicalHash());
+			tableProbes++;
+			if (entry != 0) {
+				tableHits++;
+				tableMove = Connect4TranspositionTable.move(entry);
+				if (mirrored && tableMove != Connect4TranspositionTable.NO_MOVE) {
+					tableMove = Connect4Model.mirrorColumn(tableMove);
+				}
+				if (ply > 0 && Connect4TranspositionTable.depth(entry) >= depth) {
+					int score = Connect4TranspositionTable.score(entry);
+					int bound = Connect4TranspositionTable.bound(entry);
+					if (bound == Connect4TranspositionTable.EXACT) {
+						return score;
+					} else if (bound == Connect4TranspositionTable.LOWER) {
+						alpha = Math.max(alpha, score);
+					} else {
+						beta = Math.min(beta, score);
+					}
+					if (alpha >= beta) {
+						return score;
+					}
+				}
+			}
+		}
+		boolean onPv = followPv && ply < prevPvLength;
+		int pvMove = onPv ? prevPv[ply] : Connect4TranspositionTable.NO_MOVE;
+		int best = -INFINITY;
+		int bestColumn = Connect4TranspositionTable.NO_MOVE;
+		for (int i = -2; i < MOVE_ORDER.length; i++) {
+			// the move of the last best line goes first, then the move from the table, then the others from the center out
+			int column = i == -2 ? pvMove : i == -1 ? tableMove : MOVE_ORDER[i];
+			if ((i >= -1 && column == pvMove) || (i >= 0 && column == tableMove) || !model.canPlay(column)) {
+				continue;
+			}
+			followPv = onPv && column == pvMove;
+			model.makeMove(column);
+			int score = -negamax(depth - 1, -beta, -alpha);
+			model.unmakeMove(column);
+			if (stopped) {
+				return 0; // the score is not finished, don't store it
+			}
+			if (score > best) {
+				best = score;
+				bestColumn = column;
+				if (score > alpha) {
+					alpha = score;
+					pv[ply][ply] = column;
+					System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+					pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+					if (alpha >= beta) {
+						break;
+					}
+				}
+			}
+		}
+		if (table != null) {
+			int bound = best <= alphaStart ? Connect4TranspositionTable.UPPER
+					: best >= beta ? Connect4TranspositionTable.LOWER : Connect4TranspositionTable.EXACT;
+			if (mirrored && bestColumn != Connect4TranspositionTable.NO_MOVE) {
+				bestColumn = Connect4Model.mirrorColumn(bestColumn); // the move is stored for the canonical board
+			}
+			table.store(model.getCanonicalHash(), depth, bound, best, bestColumn);
+		}
+		return best;
+	}
+
+	/**
+	 * evaluate()
+	 * guess the score when the search stops: the places where each player could finish a line of four,
+	 * and the tokens in the center column.
+	 * @return the score for the player who plays next
+	 */
+	private int evaluate() {
+		long mask = model.getMask();
+		long mine = model.getCurrentBoard();
+		long theirs = mine ^ mask;
+		int threats = Long.bitCount(Connect4Model.winningCells(mine, mask))
+				- Long.bitCount(Connect4Model.winningCells(theirs, mask));
+		long center = ((1L << Connect4Model.BOARD_ROW) - 1) << (Connect4Model.BOARD_COLUMN / 2 * Connect4Model.HEIGHT);
+		return 16 * threats + 2 * (Long.bitCount(mine & center) - Long.bitCount(theirs & center));
+	}
+
+	/**
+	 * centerFirst()
+	 * @param columns the number of columns
+	 * @return the columns sorted by their distance to the center
+	 */
+	static int[] centerFirst(int columns) {
+		int[] order = new int[columns];
+		for (int i = 0; i < columns; i++) {
+			order[i] = columns / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2;
+		}
+		return order;
+	}
+}
@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connect4OpeningBook
+ * the best moves of the first positions of the game, searched once offline and read from a file.
+ * the computer plays O, so the book only has the positions where O plays next.
+ * the file is mapped into memory and searched with a binary search, so a lookup doesn't read the whole book,
+ * takes no heap and costs a few microseconds at most.
+ * the format is big-endian: a header of 16 bytes with the magic number "C4BK", the version, the number of rows
+ * and columns, the number of moves covered, the number of positions and the depth of the search,
+ * then one long per position sorted by value: the canonical Zobrist hash of the position with the column to play
+ * on the canonical board in its lowest 8 bits. a position and its mirror are one record.
+ * version 1 books were keyed by the plain hash and are no longer read.
+ * @author wentao
+ *
+ */
+public class Connect4OpeningBook {
+	static final int MAGIC = 0x4334424B; // "C4BK"
+	static final int VERSION = 2;
+	static final int HEADER = 16;
+
+	/**
+	 * the bits of a record that hold the column, the others are the hash.
+	 */
+	private static final long MOVE_BITS = 0xFFL;
+
+	private final MappedByteBuffer records;
+	private final int size;
+	private final int plies;
+	private final int depth;
+
+	/**
+	 * the constructor of the book, it maps the file.
+	 * @param path the file of the book
+	 * @throws IOException if the file can't be read or is not a book for this board
+	 */
+	public Connect4OpeningBook(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER) {
+				throw new IOException("not an opening book");
+			}
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (map.getInt(0) != MAGIC) {
+				throw new IOException("not an opening book");
+			}
+			if (map.get(4) != VERSION) {
+				throw new IOException("unknown opening book version " + map.get(4));
+			}
+			if (map.get(5) != Connect4Model.BOARD_ROW || map.get(6) != Connect4Model.BOARD_COLUMN) {
+				throw new IOException("the opening book is for another board size");
+			}
+			plies = map.get(7);
+			size = map.getInt(8);
+			depth = map.getInt(12);
+			if (size < 0 || channel.size() != HEADER + 8L * size) {
+				throw new IOException("the opening book is damaged");
+			}
+			records = map; // the mapping stays valid after the channel is closed
+		}
+	}
+
+	/**
+	 * getSize()
+	 * @return the number of positions in the book
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * getPlies()
+	 * @return the book has the positions with fewer tokens than this
+	 */
+	public int getPlies() {
+		return plies;
+	}
+
+	/**
+	 * getDepth()
+	 * @return how many moves ahead the positions of the book were searched
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * lookup()
+	 * @param model the model of the game
+	 * @return the column of the book for the position, -1 if it is not in the book
+	 */
+	public int lookup(Connect4Model model) {
+		if (model.getMoveCount() >= plies) {
+			return -1;
+		}
+		int column = lookup(model.getCanonicalHash());
+		return column != -1 && model.isMirrored() ? Connect4Model.mirrorColumn(column) : column;
+	}
+
+	/**
+	 * lookup()
+	 * @param hash the canonical Zobrist hash of the position
+	 * @return the column of the book for the canonical board, -1 if it is not in the book
+	 */
+	public int lookup(long hash) {
+		long key = hash & ~MOVE_BITS;
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long record = records.getLong(HEADER + 8 * middle);
+			long found = record & ~MOVE_BITS;
+			if (found < key) {
+				low = middle + 1;
+			} else if (found > key) {
+				high = middle - 1;
+			} else {
+				return (int) (record & MOVE_BITS);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * generate()
+	 * search every position with fewer tokens than plies where O plays next and the game is not over,
+	 * and write the book.
+	 * the positions are found once even if they are reached through different moves or are mirrors
+	 * of each other, and they are searched
+	 * by a few threads with the controller's computer move, sharing one transposition table.
+	 * @param path the file to write
+	 * @param plies the book has the positions with fewer tokens than this
+	 * @param depth how many moves ahead each position is searched
+	 * @param threads the number of threads searching
+	 * @return the number of positions written
+	 * @throws IOException if the file can't be written
+	 */
+	public static int generate(Path path, int plies, int depth, int threads) throws IOException {
+		if (plies < 1 || plies > Connect4Model.BOARD_ROW * Connect4Model.BOARD_COLUMN) {
+			throw new IllegalArgumentException("plies should be between 1 and the number of cells");
+		}
+		List<long[]> positions = new ArrayList<>();
+		collect(new Connect4Model(), plies, new HashSet<>(), positions);
+		long[] records = new long[positions.size()];
+		Connect4TranspositionTable table = new Connect4TranspositionTable(64);
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> results = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			results.add(pool.submit(() -> {
+				Connect4Model model = new Connect4Model();
+				Connect4Controller controller = new Connect4Controller(model);
+				controller.setEngine(new Connect4NegamaxEngine(depth, table));
+				for (int k = next.getAndIncrement(); k < records.length; k = next.getAndIncrement()) {
+					model.setPosition(positions.get(k)[0], positions.get(k)[1]);
+					int column = controller.chooseComputerColumn();
+					if (model.isMirrored()) {
+						column = Connect4Model.mirrorColumn(column);
+					}
+					records[k] = (model.getCanonicalHash() & ~MOVE_BITS) | column;
+				}
+			}));
+		}
+		try {
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while searching the book");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("a search failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		Arrays.sort(records);
+		write(path, records, plies, depth);
+		return records.length;
+	}
+
+	/**
+	 * collect()
+	 * find the positions of the book from the model, once each: the ones where O plays next,
+	 * the others are only passed through.
+	 * @param model the model, it is the same after the call
+	 * @param plies the book has the positions with fewer tokens than this
+	 * @param seen the canonical hashes of the positions already found
+	 * @param positions the bitboards of X and O of the positions found
+	 */
+	private static void collect(Connect4Model model, int plies, Set<Long> seen, List<long[]> positions) {
+		if (model.getMoveCount() >= plies || !seen.add(model.getCanonicalHash())) {
+			return;
+		}
+		if (!model.isXTurn()) {
+			positions.add(new long[] {model.getXBoard(), model.getOBoard()});
+		}
+		for (int column = 0; column < Connect4Model.BOARD_COLUMN; column++) {
+			if (model.canPlay(column) && !model.isWinningMove(column)) {
+				model.makeMove(column);
+				if (!model.isFull()) {
+					collect(model, plies, seen, positions);
+				}
+				model.unmakeMove(column);
+			}
+		}
+	}
+
+	/**
+	 * write()
+	 * @param path the file to write
+	 * @param records the sorted records
+	 * @param plies the book has the positions with fewer tokens than this
+	 * @param depth how many moves ahead the positions were searched
+	 * @throws IOException if the file can't be written
+	 */
+	private static void write(Path path, long[] records, int plies, int depth) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		buffer.put((byte) Connect4Model.BOARD_ROW);
+		buffer.put((byte) Connect4Model.BOARD_COLUMN);
+		buffer.put((byte) plies);
+		buffer.putInt(records.length);
+		buffer.putInt(depth);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (long record : records) {
+				if (!buffer.hasRemaining()) {
+					flush(buffer, channel);
+				}
+				buffer.putLong(record);
+			}
+			flush(buffer, channel);
+		}
+	}
+
+	/**
+	 * flush()
+	 * @param buffer the bytes to write, it is empty after the call
+	 * @param channel the file
+	 * @throws IOException if the file can't be written
+	 */
+	private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * main() method
+	 * "java Connect4OpeningBook generate [file] [plies] [depth] [threads]" writes a book,
+	 * "java Connect4OpeningBook probe [file]" maps it and prints the time of a lookup.
+	 * @param args the arguments above
+	 * @throws IOException if the book can't be written or read
+	 */
+	public static void main(String[] args) throws IOException {
+		String mode = args.length > 0 ? args[0] : "generate";
+		Path path = Paths.get(args.length > 1 ? args[1] : "opening_book.dat");
+		if (mode.equals("generate")) {
+			int plies = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+			int depth = args.length > 3 ? Integer.parseInt(args[3]) : 12;
+			int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+			long start = System.nanoTime();
+			int count = generate(path, plies, depth, threads);
+			System.out.printf("%d positions searched to depth %d in %.1f s%n", count, depth,
+					(System.nanoTime() - start) / 1e9);
+			return;
+		}
+		Connect4OpeningBook book = new Connect4OpeningBook(path);
+		Connect4Model model = new Connect4Model();
+		java.util.Random rand = new java.util.Random(42);
+		int lookups = 1000000;
+		int found = 0;
+		long nanos = 0;
+		for (int i = 0; i < lookups; i++) {
+			if (model.getMoveCount() >= book.getPlies() || model.isFull() || i % 16 == 0) {
+				model.clear();
+			}
+			long start = System.nanoTime();
+			int column = book.lookup(model);
+			nanos += System.nanoTime() - start;
+			if (column != -1) {
+				found++;
+			} else {
+				column = rand.nextInt(Connect4Model.BOARD_COLUMN);
+			}
+			if (model.canPlay(column) && !model.isWinningMove(column)) {
+				model.makeMove(column);
+			} else {
+				model.clear();
+			}
+		}
+		System.out.printf("%d positions, %d lookups found %d, %.0f ns per lookup%n", book.getSize(), lookups,
+				found, (double) nanos / lookups);
+	}
+}
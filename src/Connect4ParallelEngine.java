@@ -0,0 +1,236 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connect4ParallelEngine
+ * the AI that searches on several cores at once (lazy SMP).
+ * every thread runs its own negamax engine on its own copy of the board, and they all share one
+ * lock-free transposition table, so the results found by the helper threads speed up the main search.
+ * half of the helpers search one move deeper so the threads don't all look at the same positions.
+ * the move comes from the main thread, the helpers are stopped as soon as it is done.
+ * @author wentao
+ *
+ */
+public class Connect4ParallelEngine implements Connect4Engine {
+	private final Connect4NegamaxEngine main;
+	private final Connect4NegamaxEngine[] helpers;
+	private final Future<?>[] running;
+	private final ExecutorService pool;
+	private final Connect4TranspositionTable table;
+	private long nodes;
+	private long tableProbes;
+	private long tableHits;
+	private long elapsedNanos;
+
+	/**
+	 * the constructor of the engine.
+	 * @param depth how many moves ahead the main thread searches
+	 * @param threads the number of threads, including the main one
+	 * @param table the shared transposition table
+	 */
+	public Connect4ParallelEngine(int depth, int threads, Connect4TranspositionTable table) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("there should be at least 1 thread");
+		}
+		if (table == null) {
+			throw new IllegalArgumentException("the threads need a shared transposition table");
+		}
+		this.table = table;
+		main = new Connect4NegamaxEngine(depth, table);
+		helpers = new Connect4NegamaxEngine[threads - 1];
+		running = new Future<?>[threads - 1];
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i] = new Connect4NegamaxEngine(depth + (i % 2), table);
+		}
+		pool = helpers.length == 0 ? null : Executors.newFixedThreadPool(helpers.length, r -> {
+			Thread thread = new Thread(r, "connect4-search");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * bestMove()
+	 * start the helpers on copies of the board, search with the main thread, then stop the helpers.
+	 * @param model the model of the game
+	 * @return the column to play, -1 if the board is full
+	 */
+	@Override
+	public int bestMove(Connect4Model model) {
+		if (!supports(model)) {
+			throw new IllegalArgumentException("the engine only plays the standard board");
+		}
+		long start = System.nanoTime();
+		table.newSearch();
+		for (int i = 0; i < helpers.length; i++) {
+			Connect4NegamaxEngine helper = helpers[i];
+			Connect4Model copy = model.copy();
+			helper.reset();
+			running[i] = pool.submit(() -> helper.search(copy));
+		}
+		main.reset();
+		int column = main.search(model);
+		nodes = main.getNodes();
+		tableProbes = main.getTableProbes();
+		tableHits = main.getTableHits();
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i].stop();
+		}
+		for (int i = 0; i < helpers.length; i++) {
+			try {
+				running[i].get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("helper search failed", e.getCause());
+			}
+			nodes += helpers[i].getNodes();
+			tableProbes += helpers[i].getTableProbes();
+			tableHits += helpers[i].getTableHits();
+			running[i] = null;
+		}
+		elapsedNanos = System.nanoTime() - start;
+		return column;
+	}
+
+	/**
+	 * stop()
+	 * ask the running search to stop, the main thread returns the best column found so far.
+	 */
+	@Override
+	public void stop() {
+		main.stop();
+		for (Connect4NegamaxEngine helper : helpers) {
+			helper.stop();
+		}
+	}
+
+	/**
+	 * setStopToken()
+	 * @param token the stop token of the next searches of the main thread and the helpers, null for none
+	 */
+	@Override
+	public void setStopToken(AtomicBoolean token) {
+		main.setStopToken(token);
+		for (Connect4NegamaxEngine helper : helpers) {
+			helper.setStopToken(token);
+		}
+	}
+
+	/**
+	 * setDepth()
+	 * @param depth how many moves ahead the main thread searches
+	 */
+	public void setDepth(int depth) {
+		main.setDepth(depth);
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i].setDepth(depth + (i % 2));
+		}
+	}
+
+	/**
+	 * setTimeBudget()
+	 * limit the time of every search, see Connect4NegamaxEngine.setTimeBudget().
+	 * @param millis the time for one move in milliseconds, 0 to always search to the full depth
+	 */
+	@Override
+	public void setTimeBudget(long millis) {
+		main.setTimeBudget(millis);
+		for (Connect4NegamaxEngine helper : helpers) {
+			helper.setTimeBudget(millis);
+		}
+	}
+
+	/**
+	 * getCompletedDepth()
+	 * @return the deepest search finished by the main thread in the last move
+	 */
+	public int getCompletedDepth() {
+		return main.getCompletedDepth();
+	}
+
+	/**
+	 * getThreads()
+	 * @return the number of threads, including the main one
+	 */
+	public int getThreads() {
+		return helpers.length + 1;
+	}
+
+	/**
+	 * getNodes()
+	 * @return the number of positions looked at by all the threads in the last search
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * getElapsedNanos()
+	 * @return how long the last search took
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * addStats()
+	 * add the nodes and the table lookups of every thread of the last search to the metrics.
+	 * @param metrics the metrics of the game
+	 */
+	@Override
+	public void addStats(Connect4Metrics metrics) {
+		metrics.count(Connect4Metrics.AI_SEARCHES, 1);
+		metrics.count(Connect4Metrics.AI_NODES, nodes);
+		metrics.count(Connect4Metrics.TABLE_PROBES, tableProbes);
+		metrics.count(Connect4Metrics.TABLE_HITS, tableHits);
+	}
+
+	/**
+	 * getNodesPerSecond()
+	 * @return the number of positions looked at per second by all the threads in the last search
+	 */
+	public long getNodesPerSecond() {
+		return elapsedNanos == 0 ? 0 : nodes * 1000000000L / elapsedNanos;
+	}
+
+	/**
+	 * shutdown()
+	 * stop the helper threads, the engine can't be used after that.
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * main() method
+	 * measure the speed of the parallel search with 1 up to the given number of threads,
+	 * from the empty board, and print the nodes per second and the speedup over 1 thread.
+	 * @param args the number of threads, the depth and the table size in MB, all optional
+	 */
+	public static void main(String[] args) {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		long baseNps = 0;
+		long baseTime = 0;
+		for (int n = 1; n <= threads; n++) {
+			Connect4ParallelEngine engine = new Connect4ParallelEngine(depth, n, new Connect4TranspositionTable(megabytes));
+			int column = engine.bestMove(new Connect4Model());
+			if (n == 1) {
+				baseNps = engine.getNodesPerSecond();
+				baseTime = engine.getElapsedNanos();
+			}
+			System.out.printf("threads %d: column %d, %d nodes in %d ms, %d nodes/s, nps speedup %.2f, time speedup %.2f%n",
+					n, column, engine.getNodes(), engine.getElapsedNanos() / 1000000, engine.getNodesPerSecond(),
+					(double) engine.getNodesPerSecond() / Math.max(1, baseNps),
+					(double) baseTime / Math.max(1, engine.getElapsedNanos()));
+			engine.shutdown();
+		}
+	}
+}
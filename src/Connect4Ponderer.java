@@ -0,0 +1,223 @@
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Connect4Ponderer
+ * searches while the human thinks. after the computer's move it tries every reply of the human in the background,
+ * one move deeper at a time over all the replies, and keeps the computer's answer to each reply of the deepest
+ * search finished. an answer is played once it is as deep as the engine would search: its full depth, or with a
+ * time budget the depth the engine finished in its last move.
+ * it shares the transposition table of the engine, so even an answer that wasn't finished leaves the table warm
+ * for the engine's own search.
+ * @author wentao
+ *
+ */
+public class Connect4Ponderer {
+	private final Connect4NegamaxEngine engine;
+	private final Connect4NegamaxEngine searcher;
+	private final ExecutorService thread;
+	/**
+	 * the computer's answers, one per reply of the human: the canonical hash of the board after the reply,
+	 * the column of the canonical board and the depth it was searched to. guarded by the lock of the ponderer.
+	 */
+	private final long[] keys = new long[Connect4Model.BOARD_COLUMN];
+	private final int[] columns = new int[Connect4Model.BOARD_COLUMN];
+	private final int[] depths = new int[Connect4Model.BOARD_COLUMN];
+	private int answerCount;
+	private long generation;
+	/**
+	 * the running ponder task, null if there is none.
+	 */
+	private Future<?> running;
+
+	/**
+	 * the constructor of the ponderer.
+	 * @param engine the engine of the computer, the ponderer searches as deep as it and fills its table
+	 */
+	public Connect4Ponderer(Connect4NegamaxEngine engine) {
+		this.engine = engine;
+		this.searcher = new Connect4NegamaxEngine(engine.getDepth(), engine.getTable());
+		this.thread = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "connect4-ponder");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * start()
+	 * the computer has moved, search the human's replies until stop() is called.
+	 * @param model the model of the game, it is copied so the game can go on
+	 */
+	public void start(Connect4Model model) {
+		Connect4Model position = model.copy();
+		stop();
+		synchronized (this) {
+			long started = generation;
+			answerCount = 0;
+			running = thread.submit(() -> ponder(position, started));
+		}
+	}
+
+	/**
+	 * stop()
+	 * the human has moved, stop searching and wait for the search to end,
+	 * so the engine has its table to itself afterwards. the answers found so far are kept.
+	 */
+	public void stop() {
+		Future<?> task;
+		synchronized (this) {
+			generation++;
+			searcher.stop();
+			task = running;
+			running = null;
+		}
+		if (task != null) {
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("pondering failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * answer()
+	 * @param model the model of the game, after the human's reply
+	 * @return the computer's answer to the reply, -1 if it wasn't searched as deep as the engine would
+	 */
+	public synchronized int answer(Connect4Model model) {
+		long key = model.getCanonicalHash();
+		int needed = engine.getTimeBudget() > 0 ? engine.getCompletedDepth()
+				: Math.min(engine.getDepth(), Connect4Model.BOARD_ROW * Connect4Model.BOARD_COLUMN - model.getMoveCount());
+		for (int i = 0; i < answerCount; i++) {
+			if (keys[i] == key) {
+				if (depths[i] < needed) {
+					return -1;
+				}
+				return model.isMirrored() ? Connect4Model.mirrorColumn(columns[i]) : columns[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * store()
+	 * keep the answer to a reply, it replaces the one of a shallower search. the lock must be held.
+	 * @param key the canonical hash of the board after the reply
+	 * @param column the column of the canonical board
+	 * @param depth the depth of the search
+	 */
+	private void store(long key, int column, int depth) {
+		for (int i = 0; i < answerCount; i++) {
+			if (keys[i] == key) {
+				columns[i] = column;
+				depths[i] = depth;
+				return;
+			}
+		}
+		keys[answerCount] = key;
+		columns[answerCount] = column;
+		depths[answerCount] = depth;
+		answerCount++;
+	}
+
+	/**
+	 * shutdown()
+	 * stop the thread, the ponderer can't be used after that.
+	 */
+	public void shutdown() {
+		stop();
+		thread.shutdownNow();
+	}
+
+	/**
+	 * ponder()
+	 * the background search: every reply at depth 1, then every reply at depth 2, and so on,
+	 * so all the replies get some of the time and not only the first one.
+	 * when the board is symmetric, a reply and its mirror lead to the same canonical board and only one is searched.
+	 * @param position a copy of the board, the human plays next
+	 * @param started the generation of this search, it ends when the generation changes
+	 */
+	private void ponder(Connect4Model position, long started) {
+		int depth = Math.min(engine.getDepth(),
+				Connect4Model.BOARD_ROW * Connect4Model.BOARD_COLUMN - 1 - position.getMoveCount());
+		boolean symmetric = position.getHash() == position.getMirrorHash();
+		for (int d = 1; d <= depth; d++) {
+			for (int reply : Connect4NegamaxEngine.MOVE_ORDER) {
+				if (!position.canPlay(reply) || position.isWinningMove(reply)) {
+					continue; // the game ends with this reply, there is nothing to answer
+				}
+				if (symmetric && reply > Connect4Model.mirrorColumn(reply)) {
+					continue; // the mirror of a reply already searched
+				}
+				position.makeMove(reply);
+				synchronized (this) {
+					if (generation != started) {
+						return;
+					}
+					searcher.reset(); // under the lock, so a stop() can't be lost
+					searcher.setDepth(d);
+				}
+				int column = searcher.search(position);
+				synchronized (this) {
+					if (generation != started) {
+						return; // stopped during the search, the column isn't finished
+					}
+					store(position.getCanonicalHash(), position.isMirrored() ? Connect4Model.mirrorColumn(column) : column, d);
+				}
+				position.unmakeMove(reply);
+			}
+		}
+	}
+
+	/**
+	 * main() method
+	 * plays a game against random human moves, with and without pondering, and prints the computer's
+	 * average time to answer. the human waits a moment before each move, like a real one.
+	 * @param args the depth of the engine, and how long the human thinks in milliseconds
+	 * @throws InterruptedException if the thread is interrupted while the human thinks
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		long think = args.length > 1 ? Long.parseLong(args[1]) : 500;
+		for (boolean pondering : new boolean[] {false, true}) {
+			Connect4Controller controller = new Connect4Controller(new Connect4Model());
+			Connect4NegamaxEngine engine = new Connect4NegamaxEngine(depth, new Connect4TranspositionTable(16));
+			controller.setEngine(engine);
+			if (pondering) {
+				controller.setPonderer(new Connect4Ponderer(engine));
+			}
+			Random rand = new Random(42);
+			long nanos = 0;
+			int moves = 0;
+			while (!controller.isGameOver()) {
+				Thread.sleep(think);
+				int column = rand.nextInt(Connect4Model.BOARD_COLUMN);
+				while (controller.getModel().isColumnFull(column)) {
+					column = rand.nextInt(Connect4Model.BOARD_COLUMN);
+				}
+				try {
+					controller.humanTurn(column);
+				} catch (Connect4IllegalColumnException | Connect4FullColumnException e) {
+					throw new IllegalStateException(e);
+				}
+				if (!controller.isGameOver()) {
+					long start = System.nanoTime();
+					controller.computerTurn();
+					nanos += System.nanoTime() - start;
+					moves++;
+				}
+			}
+			if (controller.getPonderer() != null) {
+				controller.getPonderer().shutdown();
+			}
+			System.out.printf("pondering %-5s: %d moves, %.1f ms per answer%n", pondering, moves, nanos / 1e6 / moves);
+		}
+	}
+}
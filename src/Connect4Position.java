@@ -0,0 +1,206 @@
+/**
+ * Connect4Position
+ * a snapshot of the board after a move, it never changes, so any thread can read it without a lock.
+ * the model publishes a new one after every move through one volatile field when publishing is on,
+ * see Connect4Model.setPublishing() and getPosition(): spectators, analysis or a server can read a whole
+ * consistent board while the game goes on, without ever stopping the thread that makes the moves.
+ * the board is kept as the model's bitboards, a few longs, so a snapshot is small and quick to make.
+ * @author wentao
+ *
+ */
+public final class Connect4Position {
+	private final int rows;
+	private final int columns;
+	private final int connect;
+	private final long[] xBoard;
+	private final long[] oBoard;
+	private final int moveCount;
+	private final long hash;
+	private final int lastRow;
+	private final int lastColumn;
+	private final boolean xWins;
+	private final boolean oWins;
+	private final long sequence;
+
+	/**
+	 * the constructor of the position, the bitboards are not copied, the model gives its own copies.
+	 * @param model the model the position comes from, for its size
+	 * @param xBoard the bitboard of the human's tokens
+	 * @param oBoard the bitboard of the computer's tokens
+	 * @param sequence the number of the position, it grows with every one the model publishes
+	 */
+	Connect4Position(Connect4Model model, long[] xBoard, long[] oBoard, long sequence) {
+		this.rows = model.getRows();
+		this.columns = model.getColumns();
+		this.connect = model.getConnect();
+		this.xBoard = xBoard;
+		this.oBoard = oBoard;
+		this.moveCount = model.getMoveCount();
+		this.hash = model.getHash();
+		this.lastRow = model.getLastRow();
+		this.lastColumn = model.getLastColumn();
+		this.xWins = model.xWins();
+		this.oWins = model.oWins();
+		this.sequence = sequence;
+	}
+
+	/**
+	 * getRows()
+	 * @return the number of rows of the board
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * getColumns()
+	 * @return the number of columns of the board
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * getConnect()
+	 * @return the number of tokens in a line that wins
+	 */
+	public int getConnect() {
+		return connect;
+	}
+
+	/**
+	 * getSequence()
+	 * @return the number of the position, a later position of the model has a larger one
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * getMoveCount()
+	 * @return the number of tokens on the board
+	 */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * isXTurn()
+	 * @return true if X plays next
+	 */
+	public boolean isXTurn() {
+		return (moveCount & 1) == 0;
+	}
+
+	/**
+	 * getHash()
+	 * @return the Zobrist hash of the board, the same as the model's
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * getLastRow()
+	 * @return the row of the last placed token, -1 if it is unknown
+	 */
+	public int getLastRow() {
+		return lastRow;
+	}
+
+	/**
+	 * getLastColumn()
+	 * @return the column of the last placed token, -1 if it is unknown
+	 */
+	public int getLastColumn() {
+		return lastColumn;
+	}
+
+	/**
+	 * xWins()
+	 * @return true if the human has a line
+	 */
+	public boolean xWins() {
+		return xWins;
+	}
+
+	/**
+	 * oWins()
+	 * @return true if the computer has a line
+	 */
+	public boolean oWins() {
+		return oWins;
+	}
+
+	/**
+	 * isGameOver()
+	 * @return true if a player has a line or the board is full
+	 */
+	public boolean isGameOver() {
+		return xWins || oWins || moveCount == rows * columns;
+	}
+
+	/**
+	 * getAt()
+	 * @param row the row of the board, row 0 is the top
+	 * @param column the column of the board
+	 * @return "X", "O" or "_"
+	 */
+	public String getAt(int row, int column) {
+		if (row < 0 || row >= rows || column < 0 || column >= columns) {
+			throw new IndexOutOfBoundsException("no place at row " + row + ", column " + column);
+		}
+		int pos = column * (rows + 1) + rows - 1 - row;
+		if ((xBoard[pos >>> 6] & (1L << pos)) != 0) {
+			return "X";
+		}
+		if ((oBoard[pos >>> 6] & (1L << pos)) != 0) {
+			return "O";
+		}
+		return "_";
+	}
+
+	/**
+	 * getXBoards()
+	 * @return a copy of the bitboard of the human's tokens, laid out like Connect4Model.getXBoards()
+	 */
+	public long[] getXBoards() {
+		return xBoard.clone();
+	}
+
+	/**
+	 * getOBoards()
+	 * @return a copy of the bitboard of the computer's tokens
+	 */
+	public long[] getOBoards() {
+		return oBoard.clone();
+	}
+
+	/**
+	 * toModel()
+	 * @return a new model with this board, e.g. to analyze it, the last move is unknown
+	 */
+	public Connect4Model toModel() {
+		Connect4Model model = new Connect4Model(rows, columns, connect);
+		model.setPosition(xBoard, oBoard);
+		return model;
+	}
+
+	/**
+	 * toString()
+	 * @return the rows of the board from the top, separated by "/", like the BOARD answer of the server
+	 */
+	@Override
+	public String toString() {
+		StringBuilder board = new StringBuilder(rows * (columns + 1));
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				board.append('/');
+			}
+			for (int j = 0; j < columns; j++) {
+				board.append(getAt(i, j));
+			}
+		}
+		return board.toString();
+	}
+}
@@ -0,0 +1,45 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Connect4RandomEngine
+ * the simplest player: it plays a random column that is not full.
+ * it is used as an opponent to test the other engines.
+ * @author wentao
+ *
+ */
+public class Connect4RandomEngine implements Connect4Engine {
+	/**
+	 * supports()
+	 * @param model the model of the game
+	 * @return true, a random column can be picked on any board
+	 */
+	@Override
+	public boolean supports(Connect4Model model) {
+		return true;
+	}
+
+	/**
+	 * bestMove()
+	 * @param model the model of the game
+	 * @return a random column that is not full, -1 if the board is full
+	 */
+	@Override
+	public int bestMove(Connect4Model model) {
+		int free = 0;
+		for (int column = 0; column < model.getColumns(); column++) {
+			if (model.canPlay(column)) {
+				free++;
+			}
+		}
+		if (free == 0) {
+			return -1;
+		}
+		int pick = ThreadLocalRandom.current().nextInt(free);
+		for (int column = 0; column < model.getColumns(); column++) {
+			if (model.canPlay(column) && pick-- == 0) {
+				return column;
+			}
+		}
+		return -1;
+	}
+}
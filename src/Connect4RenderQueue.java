@@ -0,0 +1,116 @@
+import javafx.animation.AnimationTimer;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+
+/**
+ * Connect4RenderQueue
+ * collects the changes of the board and draws them once per frame, instead of touching a circle for every move.
+ * the changes can come from any thread, only the last color of each place is kept,
+ * and the timer runs on the JavaFX thread, so a replay can push moves much faster than the screen is drawn
+ * and every frame still changes each circle at most once.
+ * @author wentao
+ *
+ */
+public class Connect4RenderQueue extends AnimationTimer {
+	private final Circle[][] circles;
+	private final int columns;
+	/**
+	 * the next color of every place, null if it doesn't change, and the places that change, in order.
+	 */
+	private final Color[] pending;
+	private final int[] dirty;
+	private int dirtyCount;
+	/**
+	 * the changes taken by the timer, so it can draw them without holding the lock.
+	 */
+	private final Color[] drawColors;
+	private final int[] drawCells;
+	private long drawn;
+	private long frames;
+
+	/**
+	 * the constructor of the queue, start() it to draw.
+	 * @param circles the circles of the board, by row and column
+	 */
+	public Connect4RenderQueue(Circle[][] circles) {
+		this.circles = circles;
+		this.columns = circles[0].length;
+		int cells = circles.length * columns;
+		pending = new Color[cells];
+		dirty = new int[cells];
+		drawColors = new Color[cells];
+		drawCells = new int[cells];
+	}
+
+	/**
+	 * set()
+	 * change the color of a place at the next frame.
+	 * @param row the row of the board
+	 * @param column the column of the board
+	 * @param color the new color
+	 */
+	public synchronized void set(int row, int column, Color color) {
+		int cell = row * columns + column;
+		if (pending[cell] == null) {
+			dirty[dirtyCount++] = cell;
+		}
+		pending[cell] = color;
+	}
+
+	/**
+	 * fill()
+	 * change every place to one color at the next frame, e.g. white for a new game.
+	 * @param color the new color
+	 */
+	public synchronized void fill(Color color) {
+		for (int row = 0; row < circles.length; row++) {
+			for (int column = 0; column < columns; column++) {
+				set(row, column, color);
+			}
+		}
+	}
+
+	/**
+	 * handle()
+	 * draw the changes since the last frame, called by JavaFX once per frame.
+	 * @param now the time of the frame in nanoseconds
+	 */
+	@Override
+	public void handle(long now) {
+		int count;
+		synchronized (this) {
+			count = dirtyCount;
+			for (int i = 0; i < count; i++) {
+				int cell = dirty[i];
+				drawCells[i] = cell;
+				drawColors[i] = pending[cell];
+				pending[cell] = null;
+			}
+			dirtyCount = 0;
+		}
+		for (int i = 0; i < count; i++) {
+			circles[drawCells[i] / columns][drawCells[i] % columns].setFill(drawColors[i]);
+			drawColors[i] = null;
+		}
+		if (count > 0) {
+			drawn += count;
+			frames++;
+		}
+	}
+
+	/**
+	 * getDrawn()
+	 * @return the number of circles changed so far
+	 */
+	public long getDrawn() {
+		return drawn;
+	}
+
+	/**
+	 * getFrames()
+	 * @return the number of frames that changed a circle so far
+	 */
+	public long getFrames() {
+		return frames;
+	}
+}
@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Connect4SaveFile
+ * reads and writes a saved game in a small binary format instead of Java serialization.
+ * the format is big-endian: the magic number "C4SV", the version, the number of rows and columns,
+ * the number of tokens in a line that wins, the player who plays next and 3 zero bytes,
+ * then the two bitboards, as many longs each as the board needs (one for the standard board),
+ * and a CRC32 of everything before it. a standard board takes 32 bytes.
+ * version 1 files, 28 bytes with a standard board and no line length, can still be read,
+ * and so can files written by the old version with ObjectOutputStream;
+ * they are written in the new format the next time the game is saved.
+ * an old serialized file may only hold a Connect4Model and its String[][] board, anything else is rejected
+ * before it is made.
+ * @author wentao
+ *
+ */
+public class Connect4SaveFile {
+	static final int MAGIC = 0x43345356; // "C4SV"
+	static final int VERSION = 2;
+	static final int HEADER = 12;
+	/**
+	 * the size of a version 1 file.
+	 */
+	static final int SIZE_V1 = 28;
+	/**
+	 * the size of the largest board the header can describe, a longer file is not a saved game.
+	 */
+	static final int MAX_SIZE = size(Byte.MAX_VALUE, Byte.MAX_VALUE);
+
+	/**
+	 * the buffer of each thread for the saved board, so a read or a write doesn't allocate one.
+	 */
+	private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_SIZE));
+
+	/**
+	 * what an old serialized file may hold: the model, its board of strings and nothing else, with small limits.
+	 */
+	private static final ObjectInputFilter SERIALIZED_FILTER = ObjectInputFilter.Config.createFilter(
+			"maxdepth=4;maxarray=" + Byte.MAX_VALUE + ";maxrefs=20000;maxbytes=1000000;Connect4Model;java.lang.String;!*");
+
+	/**
+	 * the first two bytes of a file written by ObjectOutputStream.
+	 */
+	private static final short SERIALIZED_MAGIC = (short) 0xACED;
+
+	private Connect4SaveFile() {
+	}
+
+	/**
+	 * size()
+	 * @param model the model of the game
+	 * @return the number of bytes of the saved board
+	 */
+	static int size(Connect4Model model) {
+		return size(model.getRows(), model.getColumns());
+	}
+
+	/**
+	 * size()
+	 * @param rows the number of rows
+	 * @param columns the number of columns
+	 * @return the number of bytes of a saved board of that size
+	 */
+	private static int size(int rows, int columns) {
+		int words = ((rows + 1) * columns + 63) / 64;
+		return HEADER + 16 * words + 4;
+	}
+
+	/**
+	 * write()
+	 * write the board of the model to the file, replacing it if it exists.
+	 * @param model the model of the game
+	 * @param path the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public static void write(Connect4Model model, Path path) throws IOException {
+		ByteBuffer buffer = BUFFERS.get();
+		buffer.clear();
+		encode(model, buffer);
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * encode()
+	 * put the board of the model into the buffer, size(model) bytes from its position.
+	 * @param model the model of the game
+	 * @param buffer the buffer to write to
+	 */
+	static void encode(Connect4Model model, ByteBuffer buffer) {
+		int start = buffer.position();
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		buffer.put((byte) model.getRows());
+		buffer.put((byte) model.getColumns());
+		buffer.put((byte) model.getConnect());
+		buffer.put((byte) (model.isXTurn() ? 0 : 1));
+		buffer.put((byte) 0).put((byte) 0).put((byte) 0);
+		if (model.isStandard()) {
+			buffer.putLong(model.getXBoard()); // no copy of the bitboards for the common case
+			buffer.putLong(model.getOBoard());
+		} else {
+			for (long word : model.getXBoards()) {
+				buffer.putLong(word);
+			}
+			for (long word : model.getOBoards()) {
+				buffer.putLong(word);
+			}
+		}
+		buffer.putInt(checksum(buffer, start, buffer.position() - start));
+	}
+
+	/**
+	 * read()
+	 * read a saved game, in the new format, the first one or the old serialized one.
+	 * @param path the file to read
+	 * @return the model of the saved game, without observers
+	 * @throws IOException if the file can't be read or is not a valid saved game
+	 */
+	public static Connect4Model read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = BUFFERS.get();
+			buffer.clear();
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// read the whole file, or as much of it as a saved board can take
+			}
+			buffer.flip();
+			if (buffer.remaining() >= 2 && buffer.getShort(0) == SERIALIZED_MAGIC) {
+				return readSerialized(channel.position(0));
+			}
+			if (channel.size() > MAX_SIZE) {
+				throw new IOException("not a saved game");
+			}
+			return decode(buffer);
+		}
+	}
+
+	/**
+	 * decode()
+	 * check a saved board and make the model of it.
+	 * @param buffer the buffer to read the saved board from, from its position
+	 * @return the model of the saved game
+	 * @throws IOException if the bytes are not a valid saved game
+	 */
+	static Connect4Model decode(ByteBuffer buffer) throws IOException {
+		int start = buffer.position();
+		if (buffer.remaining() < SIZE_V1 || buffer.getInt() != MAGIC) {
+			throw new IOException("not a saved game");
+		}
+		int version = buffer.get();
+		if (version != 1 && version != VERSION) {
+			throw new IOException("unknown save file version " + version);
+		}
+		int rows = buffer.get();
+		int columns = buffer.get();
+		int connect = Connect4Model.CONNECT;
+		if (version == 1 && (rows != Connect4Model.BOARD_ROW || columns != Connect4Model.BOARD_COLUMN)) {
+			throw new IOException("the saved game has another board size");
+		}
+		if (version != 1) {
+			connect = buffer.get();
+		}
+		int next = buffer.get();
+		Connect4Model model;
+		try {
+			model = new Connect4Model(rows, columns, connect);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("the saved game is damaged: " + e.getMessage());
+		}
+		int length = version == 1 ? SIZE_V1 : size(rows, columns);
+		if (buffer.remaining() < length - (buffer.position() - start)) {
+			throw new IOException("the saved game is damaged");
+		}
+		if (version != 1) {
+			buffer.position(start + HEADER);
+		}
+		long[] xBoard = new long[(length - 4 - (buffer.position() - start)) / 16];
+		long[] oBoard = new long[xBoard.length];
+		for (int i = 0; i < xBoard.length; i++) {
+			xBoard[i] = buffer.getLong();
+		}
+		for (int i = 0; i < oBoard.length; i++) {
+			oBoard[i] = buffer.getLong();
+		}
+		if (buffer.getInt() != checksum(buffer, start, length - 4)) {
+			throw new IOException("the saved game is damaged");
+		}
+		try {
+			model.setPosition(xBoard, oBoard);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("the saved game is damaged: " + e.getMessage());
+		}
+		if (next != (model.isXTurn() ? 0 : 1)) {
+			throw new IOException("the saved game is damaged: wrong player to move");
+		}
+		return model;
+	}
+
+	/**
+	 * readSerialized()
+	 * read a game saved by the old version with ObjectOutputStream.
+	 * @param channel the channel of the file, at its start
+	 * @return the model of the saved game
+	 * @throws IOException if the file can't be read or holds something else than a saved game
+	 */
+	private static Connect4Model readSerialized(FileChannel channel) throws IOException {
+		try (ObjectInputStream in = new ObjectInputStream(Channels.newInputStream(channel))) {
+			in.setObjectInputFilter(SERIALIZED_FILTER);
+			return (Connect4Model) in.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("not a saved game", e);
+		}
+	}
+
+	/**
+	 * checksum()
+	 * @param buffer the buffer with the bytes
+	 * @param start the index of the first byte
+	 * @param length the number of bytes
+	 * @return the CRC32 of the bytes
+	 */
+	private static int checksum(ByteBuffer buffer, int start, int length) {
+		CRC32 crc = new CRC32();
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.limit(start + length).position(start);
+		crc.update(bytes);
+		return (int) crc.getValue();
+	}
+}
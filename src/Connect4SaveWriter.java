@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Connect4SaveWriter
+ * saves the game in the background after every move, so the view never waits for the disk.
+ * it listens to the model and only queues the moves, a background thread does the writing:
+ * every move is appended to a move log and forced to the disk, and after a few moves the whole board
+ * is written to a temporary file, forced, and renamed over the save file, then the log is emptied.
+ * a crash can't leave a half written save file, and it loses at most the move that was being written.
+ * the thread is a daemon, so it never keeps the program running: an exit without close() is like a crash,
+ * the moves already in the log are kept and only the ones still queued are lost.
+ * a move taken back can't be removed from the log, so after an undo the whole board is written again.
+ * @author wentao
+ *
+ */
+public class Connect4SaveWriter implements Connect4MoveListener {
+	/**
+	 * the board is written again and the log emptied after this many moves in the log.
+	 */
+	static final int MOVES_PER_SNAPSHOT = 8;
+
+	/**
+	 * the size of a record of the log: the number of tokens before the move, 2 bytes so it doesn't wrap on a big
+	 * board, and the column.
+	 */
+	static final int RECORD_BYTES = 3;
+
+	/**
+	 * the mark of a new game in the queue.
+	 */
+	private static final int RESET = -1;
+
+	/**
+	 * the mark of a board to write again in the queue, after an undo.
+	 */
+	private static final int REWRITE = -2;
+
+	private final Path saveFile;
+	private final Path tempFile;
+	private final Path logFile;
+	private final Thread thread;
+	/**
+	 * the model of the game, only read on its own thread, when a move is undone.
+	 */
+	private final Connect4Model model;
+	/**
+	 * the board as the background thread knows it, only used by that thread.
+	 */
+	private final Connect4Model board;
+	private final ByteBuffer buffer;
+	/**
+	 * the bitboards of the board to write again, the last undo wins.
+	 */
+	private long[] rewriteX;
+	private long[] rewriteO;
+	private int[] queue = new int[16];
+	private int queued;
+	private boolean closed;
+	private int logged;
+
+	/**
+	 * the constructor of the writer, it starts the background thread.
+	 * @param saveFile the file of the board
+	 * @param logFile the file of the move log
+	 * @param model the model of the game, as it is now
+	 */
+	public Connect4SaveWriter(Path saveFile, Path logFile, Connect4Model model) {
+		this.saveFile = saveFile;
+		this.tempFile = Paths.get(saveFile + ".tmp");
+		this.logFile = logFile;
+		this.model = model;
+		this.board = model.copy();
+		this.buffer = ByteBuffer.allocate(Math.max(Connect4SaveFile.size(model), RECORD_BYTES * 64));
+		thread = new Thread(this::run, "connect4-save");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * moveMade()
+	 * the model made a move, queue it for the log.
+	 * @param move the packed move
+	 */
+	@Override
+	public void moveMade(int move) {
+		enqueue(Connect4MoveListener.column(move));
+	}
+
+	/**
+	 * moveUndone()
+	 * the model took a move back, queue its whole board to be written again.
+	 * @param move the packed move that was taken back
+	 */
+	@Override
+	public void moveUndone(int move) {
+		long[] x = model.getXBoards();
+		long[] o = model.getOBoards();
+		synchronized (this) {
+			rewriteX = x; // set with the mark, so the thread takes the board that goes with its last mark
+			rewriteO = o;
+			enqueue(REWRITE);
+		}
+	}
+
+	/**
+	 * reset()
+	 * the game is over or a new one starts: delete the saved game and start from the empty board.
+	 */
+	public void reset() {
+		enqueue(RESET);
+	}
+
+	/**
+	 * close()
+	 * write the board one last time if the game is not over, and stop the thread when it's done.
+	 * it doesn't wait for the disk.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * awaitClose()
+	 * wait for the thread to write everything and stop, after close().
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public void awaitClose() throws InterruptedException {
+		thread.join();
+	}
+
+	/**
+	 * enqueue()
+	 * @param op a column, RESET or REWRITE
+	 */
+	private synchronized void enqueue(int op) {
+		if (queued == queue.length) {
+			queue = java.util.Arrays.copyOf(queue, 2 * queue.length);
+		}
+		queue[queued++] = op;
+		notifyAll();
+	}
+
+	/**
+	 * run()
+	 * the background thread: take the queued moves, write them, and repeat until closed.
+	 */
+	private void run() {
+		int[] work = new int[16];
+		boolean done = false;
+		while (!done) {
+			int count;
+			long[] x;
+			long[] o;
+			synchronized (this) {
+				while (queued == 0 && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						closed = true;
+					}
+				}
+				if (work.length < queued) {
+					work = new int[queue.length];
+				}
+				count = queued;
+				System.arraycopy(queue, 0, work, 0, count);
+				queued = 0;
+				done = closed;
+				x = rewriteX;
+				o = rewriteO;
+			}
+			try {
+				write(work, count, x, o);
+				if (done) {
+					if (isOver()) {
+						delete();
+					} else {
+						writeBoard();
+					}
+				}
+			} catch (IOException e) {
+				System.out.println("unable to save");
+			}
+		}
+	}
+
+	/**
+	 * write()
+	 * apply the queued moves to the board and append them to the log, one fsync for all of them.
+	 * after an undo, the board of the last undo is taken, the moves after it are applied,
+	 * and the whole board is written instead of the log.
+	 * @param work the queued moves
+	 * @param count the number of queued moves
+	 * @param x the bitboard of the human's tokens after the last undo
+	 * @param o the bitboard of the computer's tokens after the last undo
+	 * @throws IOException if a file can't be written
+	 */
+	private void write(int[] work, int count, long[] x, long[] o) throws IOException {
+		buffer.clear();
+		int first = 0;
+		boolean rewrite = false;
+		for (int i = count - 1; i >= 0; i--) {
+			if (work[i] == REWRITE) {
+				board.setPosition(x, o); // the moves before it are in that board
+				first = i + 1;
+				rewrite = true;
+				break;
+			}
+		}
+		for (int i = first; i < count; i++) {
+			if (work[i] == RESET) {
+				buffer.clear();
+				board.clear();
+				delete();
+				rewrite = false;
+			} else {
+				if (buffer.remaining() < RECORD_BYTES) {
+					appendLog();
+				}
+				buffer.putShort((short) board.getMoveCount());
+				buffer.put((byte) work[i]);
+				int row = board.getDropRow(work[i]);
+				if (board.isXTurn()) {
+					board.placeX(row, work[i]); // keeps the win status, the board has no listener
+				} else {
+					board.placeO(row, work[i]);
+				}
+			}
+		}
+		if (rewrite) {
+			if (isOver()) {
+				delete();
+			} else {
+				writeBoard(); // it also empties the log, and the moves after the undo are in the board
+			}
+			buffer.clear();
+			return;
+		}
+		appendLog();
+		if (logged >= MOVES_PER_SNAPSHOT && !isOver()) {
+			writeBoard();
+		}
+	}
+
+	/**
+	 * appendLog()
+	 * append the moves in the buffer to the log, one record of RECORD_BYTES per move.
+	 * @throws IOException if the log can't be written
+	 */
+	private void appendLog() throws IOException {
+		buffer.flip();
+		if (buffer.hasRemaining()) {
+			logged += buffer.remaining() / RECORD_BYTES;
+			try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+			}
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * writeBoard()
+	 * write the whole board to the temporary file, force it to the disk, rename it over the save file,
+	 * then empty the log since the save file has all its moves.
+	 * @throws IOException if a file can't be written
+	 */
+	private void writeBoard() throws IOException {
+		buffer.clear();
+		Connect4SaveFile.encode(board, buffer);
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		buffer.clear();
+		Files.move(tempFile, saveFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		Files.deleteIfExists(logFile);
+		logged = 0;
+	}
+
+	/**
+	 * delete()
+	 * delete the save file and the log.
+	 * @throws IOException if a file can't be deleted
+	 */
+	private void delete() throws IOException {
+		Files.deleteIfExists(logFile);
+		Files.deleteIfExists(saveFile);
+		logged = 0;
+	}
+
+	/**
+	 * isOver()
+	 * @return true if there is nothing worth saving: the board is empty, won or full
+	 */
+	private boolean isOver() {
+		return board.getMoveCount() == 0 || board.xWins() || board.oWins() || board.isFull();
+	}
+
+	/**
+	 * recover()
+	 * read the saved game back: the save file, then the moves of the log that came after it.
+	 * a move of the log is only used if it follows the board, so a log that was already
+	 * written into the save file, or a record cut by a crash, is skipped.
+	 * @param saveFile the file of the board
+	 * @param logFile the file of the move log
+	 * @return the model of the saved game
+	 * @throws IOException if there is no saved game or it can't be read
+	 */
+	public static Connect4Model recover(Path saveFile, Path logFile) throws IOException {
+		return recover(saveFile, logFile, new Connect4Model());
+	}
+
+	/**
+	 * recover()
+	 * read the saved game back, see recover(Path, Path).
+	 * @param saveFile the file of the board
+	 * @param logFile the file of the move log
+	 * @param empty the empty board to replay the log on if there is no save file yet, it gives the board size
+	 * @return the model of the saved game
+	 * @throws IOException if there is no saved game or it can't be read
+	 */
+	public static Connect4Model recover(Path saveFile, Path logFile, Connect4Model empty) throws IOException {
+		Connect4Model model;
+		try {
+			model = Connect4SaveFile.read(saveFile);
+		} catch (NoSuchFileException e) {
+			if (!Files.exists(logFile)) {
+				throw e;
+			}
+			model = empty;
+		}
+		if (Files.exists(logFile)) {
+			ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(logFile));
+			while (log.remaining() >= RECORD_BYTES) {
+				int moveCount = log.getShort() & 0xFFFF;
+				int column = log.get();
+				if (moveCount == model.getMoveCount() && model.canPlay(column)) {
+					int row = model.getDropRow(column);
+					if (model.isXTurn()) {
+						model.placeX(row, column);
+					} else {
+						model.placeO(row, column);
+					}
+				}
+			}
+		}
+		return model;
+	}
+}
@@ -0,0 +1,499 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Connect4Server
+ * hosts many games at once, each in its own session with a small controller and model, kept by session id.
+ * the games are played through the in-process play() method, or through a local socket with a line protocol:
+ * "NEW" answers "OK id", "MOVE id column" answers "OK reply status", "BOARD id" answers "OK" and the rows,
+ * "CLOSE id" answers "OK", and errors answer "ERR" and the message.
+ * the connections are served by one selector thread that reads and writes without blocking,
+ * and each command line is answered by one task of a small thread pool: a connection only takes a thread
+ * while one of its commands runs, and its commands are answered one at a time, in order.
+ * the engines are kept per thread and not per session, so a session only costs its board.
+ * @author wentao
+ *
+ */
+public class Connect4Server {
+	/**
+	 * the status of a game after a move.
+	 */
+	public static final int ONGOING = 0;
+	public static final int X_WON = 1;
+	public static final int O_WON = 2;
+	public static final int TIE = 3;
+
+	/**
+	 * the reply column when the computer didn't move because the game ended.
+	 */
+	public static final int NO_REPLY = 0xFF;
+
+	private final ConcurrentHashMap<Long, Connect4Session> sessions = new ConcurrentHashMap<>();
+	private final AtomicLong nextId = new AtomicLong();
+	private final ThreadLocal<Connect4Engine> engines;
+	private final ExecutorService pool;
+	private volatile Selector selector;
+	private volatile boolean stopping;
+	/**
+	 * the connections with answers to write, handed from the pool to the selector thread.
+	 */
+	private final ConcurrentLinkedQueue<Connection> writable = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * the longest command line, a connection sending a longer one is closed.
+	 */
+	static final int MAX_LINE = 256;
+
+	/**
+	 * one socket connection: the bytes read, the command lines waiting for their answer and the answers to write.
+	 * the selector thread owns the channel and the input, the rest is guarded by the lock of the connection.
+	 */
+	private static final class Connection {
+		private final SocketChannel channel;
+		private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+		private final ArrayDeque<String> lines = new ArrayDeque<>();
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+		private SelectionKey key;
+		/**
+		 * true while a task of the pool answers the lines of the connection.
+		 */
+		private boolean busy;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * the constructor of the server.
+	 * @param engines makes the engine of the computer, once per thread, null for the simple random-and-block moves
+	 * @param threads the number of threads answering the commands of the socket connections
+	 */
+	public Connect4Server(Supplier<Connect4Engine> engines, int threads) {
+		this.engines = engines == null ? null : ThreadLocal.withInitial(engines);
+		this.pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "connect4-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * newSession()
+	 * start a new game.
+	 * @return the id of the session
+	 */
+	public long newSession() {
+		long id = nextId.incrementAndGet();
+		sessions.put(id, new Connect4Session(id));
+		return id;
+	}
+
+	/**
+	 * getSession()
+	 * @param id the id of the session
+	 * @return the session
+	 * @throws IllegalArgumentException if there is no such session
+	 */
+	public Connect4Session getSession(long id) {
+		Connect4Session session = sessions.get(id);
+		if (session == null) {
+			throw new IllegalArgumentException("no session " + id);
+		}
+		return session;
+	}
+
+	/**
+	 * closeSession()
+	 * @param id the id of the session
+	 * @return true if the session existed
+	 */
+	public boolean closeSession(long id) {
+		Connect4Session session = sessions.remove(id);
+		if (session == null) {
+			return false;
+		}
+		synchronized (session) {
+			session.close();
+		}
+		return true;
+	}
+
+	/**
+	 * getSessionCount()
+	 * @return the number of live sessions
+	 */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * evictIdle()
+	 * close the sessions that had no move for a while.
+	 * a session is checked again under its lock, so a move in flight finishes first and keeps its session alive.
+	 * @param maxIdleMillis how long a session may be idle
+	 * @return the number of closed sessions
+	 */
+	public int evictIdle(long maxIdleMillis) {
+		long oldest = System.currentTimeMillis() - maxIdleMillis;
+		int evicted = 0;
+		for (Connect4Session session : sessions.values()) {
+			if (session.getLastUsed() < oldest) {
+				synchronized (session) {
+					if (!session.isClosed() && session.getLastUsed() < oldest) {
+						session.close();
+						sessions.remove(session.getId(), session);
+						evicted++;
+					}
+				}
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * play()
+	 * the human's move in a session, followed by the computer's reply if the game goes on.
+	 * @param id the id of the session
+	 * @param column the column of the human's move
+	 * @return the status and the reply packed in an int, read them with status() and reply()
+	 * @throws Connect4IllegalColumnException if the column is not on the board
+	 * @throws Connect4FullColumnException if the column is full
+	 * @throws IllegalStateException if the game is already over
+	 */
+	public int play(long id, int column) throws Connect4IllegalColumnException, Connect4FullColumnException {
+		Connect4Session session = getSession(id);
+		synchronized (session) {
+			if (session.isClosed()) {
+				throw new IllegalArgumentException("no session " + id); // closed while the move waited
+			}
+			session.touch();
+			Connect4Controller controller = session.getController();
+			if (controller.isGameOver()) {
+				throw new IllegalStateException("the game is over");
+			}
+			controller.humanTurn(column);
+			int reply = NO_REPLY;
+			if (!controller.isGameOver()) {
+				controller.setEngine(engines == null ? null : engines.get());
+				controller.computerTurn();
+				controller.setEngine(null);
+				reply = controller.getModel().getLastColumn();
+			}
+			return (status(controller) << 8) | reply;
+		}
+	}
+
+	/**
+	 * status()
+	 * @param result the result of play()
+	 * @return ONGOING, X_WON, O_WON or TIE
+	 */
+	public static int status(int result) {
+		return result >>> 8;
+	}
+
+	/**
+	 * reply()
+	 * @param result the result of play()
+	 * @return the column of the computer's reply, NO_REPLY if the game ended with the human's move
+	 */
+	public static int reply(int result) {
+		return result & 0xFF;
+	}
+
+	/**
+	 * status()
+	 * @param controller the controller of a game
+	 * @return the status of the game
+	 */
+	private static int status(Connect4Controller controller) {
+		if (controller.playerWin()) {
+			return X_WON;
+		}
+		if (controller.computerWin()) {
+			return O_WON;
+		}
+		return controller.isGameOver() ? TIE : ONGOING;
+	}
+
+	/**
+	 * listen()
+	 * accept socket connections on the local address, served by a background selector thread.
+	 * @param port the port to listen on, 0 for any free port
+	 * @return the port the server listens on
+	 * @throws IOException if the port can't be opened
+	 */
+	public int listen(int port) throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+		server.configureBlocking(false);
+		Selector selector = Selector.open();
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		this.selector = selector;
+		Thread loop = new Thread(() -> run(selector, server), "connect4-io");
+		loop.setDaemon(true);
+		loop.start();
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * run()
+	 * the selector thread: accept the connections, read their command lines and write their answers,
+	 * until shutdown(), then close every connection.
+	 * @param selector the selector of the server
+	 * @param server the channel accepting the connections
+	 */
+	private void run(Selector selector, ServerSocketChannel server) {
+		try {
+			while (!stopping) {
+				selector.select();
+				for (Connection connection = writable.poll(); connection != null; connection = writable.poll()) {
+					if (connection.key.isValid()) {
+						connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isAcceptable()) {
+							accept(server, selector);
+						} else {
+							Connection connection = (Connection) key.attachment();
+							if (key.isReadable()) {
+								read(connection);
+							}
+							if (key.isValid() && key.isWritable()) {
+								write(connection);
+							}
+						}
+					} catch (IOException e) {
+						close(key); // the client went away
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("the server stopped: " + e.getMessage());
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/**
+	 * accept()
+	 * take a new connection and wait for its commands.
+	 * @throws IOException if the connection can't be set up
+	 */
+	private static void accept(ServerSocketChannel server, Selector selector) throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel != null) {
+			channel.configureBlocking(false);
+			Connection connection = new Connection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		}
+	}
+
+	/**
+	 * read()
+	 * read what the client sent, and hand its complete lines to the pool.
+	 * @param connection the connection
+	 * @throws IOException if the client went away or sent a line that is too long
+	 */
+	private void read(Connection connection) throws IOException {
+		ByteBuffer in = connection.in;
+		if (connection.channel.read(in) < 0) {
+			throw new IOException("closed");
+		}
+		in.flip();
+		int start = in.position();
+		boolean added = false;
+		for (int i = start; i < in.limit(); i++) {
+			if (in.get(i) == '\n') {
+				byte[] line = new byte[i - start];
+				in.get(start, line);
+				synchronized (connection) {
+					connection.lines.add(new String(line, StandardCharsets.US_ASCII));
+				}
+				added = true;
+				start = i + 1;
+			}
+		}
+		in.position(start);
+		in.compact();
+		if (!in.hasRemaining()) {
+			throw new IOException("the line is too long");
+		}
+		if (added) {
+			synchronized (connection) {
+				if (!connection.busy) {
+					connection.busy = true;
+					pool.execute(() -> answerNext(connection));
+				}
+			}
+		}
+	}
+
+	/**
+	 * answerNext()
+	 * a task of the pool: answer the first waiting line of the connection, then give the thread back,
+	 * another task is queued for the next line so a busy connection doesn't keep the thread.
+	 * @param connection the connection
+	 */
+	private void answerNext(Connection connection) {
+		String line;
+		synchronized (connection) {
+			line = connection.lines.poll();
+		}
+		byte[] answer = (answer(line.trim().split("\\s+")) + "\n").getBytes(StandardCharsets.US_ASCII);
+		synchronized (connection) {
+			connection.out.add(ByteBuffer.wrap(answer));
+			if (connection.lines.isEmpty()) {
+				connection.busy = false;
+			} else {
+				pool.execute(() -> answerNext(connection));
+			}
+		}
+		writable.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * write()
+	 * write the answers of the connection as far as the socket takes them, and stop waiting to write
+	 * once they are all written.
+	 * @param connection the connection
+	 * @throws IOException if the client went away
+	 */
+	private static void write(Connection connection) throws IOException {
+		synchronized (connection) {
+			while (!connection.out.isEmpty()) {
+				ByteBuffer answer = connection.out.peek();
+				connection.channel.write(answer);
+				if (answer.hasRemaining()) {
+					return; // the socket is full, the rest when it is writable again
+				}
+				connection.out.poll();
+			}
+		}
+		connection.key.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * close()
+	 * @param key the key of a channel to close
+	 */
+	private static void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	/**
+	 * answer()
+	 * @param command the words of a command line
+	 * @return the answer line
+	 */
+	String answer(String[] command) {
+		try {
+			switch (command[0].toUpperCase()) {
+			case "NEW":
+				return "OK " + newSession();
+			case "MOVE":
+				int result = play(Long.parseLong(command[1]), Integer.parseInt(command[2]));
+				int reply = reply(result);
+				return "OK " + (reply == NO_REPLY ? -1 : reply) + " " + status(result);
+			case "BOARD":
+				return "OK " + board(getSession(Long.parseLong(command[1])));
+			case "CLOSE":
+				return closeSession(Long.parseLong(command[1])) ? "OK" : "ERR no session " + command[1];
+			default:
+				return "ERR unknown command " + command[0];
+			}
+		} catch (Connect4IllegalColumnException | Connect4FullColumnException | RuntimeException e) {
+			return "ERR " + e.getMessage();
+		}
+	}
+
+	/**
+	 * board()
+	 * read from the published position, so it doesn't wait for the computer's move of the session.
+	 * @param session a session
+	 * @return the rows of the board from the top, separated by "/"
+	 */
+	private static String board(Connect4Session session) {
+		return session.getPosition().toString();
+	}
+
+	/**
+	 * shutdown()
+	 * stop listening and close the connections, the sessions are kept.
+	 */
+	public void shutdown() {
+		stopping = true;
+		if (selector != null) {
+			selector.wakeup();
+		}
+		pool.shutdownNow();
+	}
+
+	/**
+	 * main() method
+	 * "java Connect4Server [port] [threads]" serves games on the local port,
+	 * "java Connect4Server load [sessions]" creates many sessions, plays a move in each,
+	 * and prints the memory per session and the time per move.
+	 * @param args the arguments above
+	 * @throws Exception if the port can't be opened
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("load")) {
+			int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+			Connect4Server server = new Connect4Server(null, 1);
+			Runtime runtime = Runtime.getRuntime();
+			System.gc();
+			long before = runtime.totalMemory() - runtime.freeMemory();
+			long start = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				server.play(server.newSession(), 3);
+			}
+			long nanos = System.nanoTime() - start;
+			System.gc();
+			long after = runtime.totalMemory() - runtime.freeMemory();
+			System.out.printf("%d sessions: %d bytes per session, %.0f ns per new session and move%n",
+					server.getSessionCount(), (after - before) / count, (double) nanos / count);
+			server.shutdown();
+			return;
+		}
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 4444;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		Connect4Server server = new Connect4Server(null, threads);
+		System.out.println("listening on port " + server.listen(port));
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * Connect4Session
+ * one game hosted by the server: its own controller and model, without observers or files.
+ * the moves of a session are made one at a time by locking the session,
+ * the board can be read at any time without the lock through getPosition(), e.g. by spectators.
+ * the model only publishes its positions once someone has read the board, a session nobody watches
+ * creates no snapshot per move.
+ * @author wentao
+ *
+ */
+public class Connect4Session {
+	private final long id;
+	private final Connect4Controller controller;
+	private volatile long lastUsed;
+	/**
+	 * true once the session is closed or evicted, only used while holding the lock of the session.
+	 */
+	private boolean closed;
+
+	/**
+	 * the constructor of the session, it starts with the empty board.
+	 * @param id the id of the session
+	 */
+	public Connect4Session(long id) {
+		this.id = id;
+		this.controller = new Connect4Controller(new Connect4Model());
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * getId()
+	 * @return the id of the session
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * getController()
+	 * @return the controller of the game, only use it while holding the lock of the session
+	 */
+	public Connect4Controller getController() {
+		return controller;
+	}
+
+	/**
+	 * getPosition()
+	 * the first call turns publishing on under the lock, so it may wait for a running move once,
+	 * the next ones don't need the lock and don't wait.
+	 * @return the board after the last move
+	 */
+	public Connect4Position getPosition() {
+		Connect4Position position = controller.getModel().getPosition();
+		if (position == null) {
+			synchronized (this) {
+				Connect4Model model = controller.getModel();
+				if (!model.isPublishing()) {
+					model.setPublishing(true);
+				}
+				position = model.getPosition();
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * isClosed()
+	 * @return true if the session was closed or evicted, only call it while holding the lock
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * close()
+	 * mark the session closed, a move waiting for the lock then fails. only call it while holding the lock.
+	 */
+	void close() {
+		closed = true;
+	}
+
+	/**
+	 * getLastUsed()
+	 * @return the time of the last move in milliseconds
+	 */
+	public long getLastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * touch()
+	 * remember that the session was just used.
+	 */
+	void touch() {
+		lastUsed = System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Connect4SimulationResult
+ * the results of a batch of games played by the simulator.
+ * @author wentao
+ *
+ */
+public class Connect4SimulationResult {
+	private final long xWins;
+	private final long oWins;
+	private final long ties;
+	private final long moves;
+	private final long elapsedNanos;
+
+	/**
+	 * @param xWins the number of games won by X
+	 * @param oWins the number of games won by O
+	 * @param ties the number of tie games
+	 * @param moves the number of moves of all the games
+	 * @param elapsedNanos how long the games took
+	 */
+	public Connect4SimulationResult(long xWins, long oWins, long ties, long moves, long elapsedNanos) {
+		this.xWins = xWins;
+		this.oWins = oWins;
+		this.ties = ties;
+		this.moves = moves;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * getGames()
+	 * @return the number of games played
+	 */
+	public long getGames() {
+		return xWins + oWins + ties;
+	}
+
+	/**
+	 * getXWins()
+	 * @return the number of games won by X, the player who starts
+	 */
+	public long getXWins() {
+		return xWins;
+	}
+
+	/**
+	 * getOWins()
+	 * @return the number of games won by O
+	 */
+	public long getOWins() {
+		return oWins;
+	}
+
+	/**
+	 * getTies()
+	 * @return the number of tie games
+	 */
+	public long getTies() {
+		return ties;
+	}
+
+	/**
+	 * getMoves()
+	 * @return the number of moves of all the games
+	 */
+	public long getMoves() {
+		return moves;
+	}
+
+	/**
+	 * getAverageMoves()
+	 * @return the average number of moves of a game
+	 */
+	public double getAverageMoves() {
+		return getGames() == 0 ? 0 : (double) moves / getGames();
+	}
+
+	/**
+	 * getElapsedNanos()
+	 * @return how long the games took
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * getGamesPerSecond()
+	 * @return the number of games played per second
+	 */
+	public double getGamesPerSecond() {
+		return elapsedNanos == 0 ? 0 : getGames() * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * toString()
+	 * @return the results on one line
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d games: X won %d, O won %d, %d ties, %.1f moves per game, %.0f games/s",
+				getGames(), xWins, oWins, ties, getAverageMoves(), getGamesPerSecond());
+	}
+}
@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Connect4Simulator
+ * plays many games between two engines without the view, to test the AI at scale.
+ * the games run on a thread pool, every thread has its own model, controller and engines,
+ * and no file is read or written and no observer is added.
+ * X moves go through humanTurn() and O moves through computerTurn(), so the games use the same move logic as the view.
+ * the games can be recorded into a game log.
+ * @author wentao
+ *
+ */
+public class Connect4Simulator {
+	private final Supplier<Connect4Engine> xPlayer;
+	private final Supplier<Connect4Engine> oPlayer;
+	private final int threads;
+	private Connect4GameLog gameLog;
+
+	/**
+	 * the constructor of the simulator.
+	 * the suppliers are called once per thread, since the engines keep state during a search.
+	 * @param xPlayer makes the engine of X, the player who starts
+	 * @param oPlayer makes the engine of O, it may return null to use the controller's simple random-and-block moves
+	 * @param threads the number of threads playing games
+	 */
+	public Connect4Simulator(Supplier<Connect4Engine> xPlayer, Supplier<Connect4Engine> oPlayer, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("there should be at least 1 thread");
+		}
+		this.xPlayer = xPlayer;
+		this.oPlayer = oPlayer;
+		this.threads = threads;
+	}
+
+	/**
+	 * setGameLog()
+	 * @param gameLog the log to record every game into, null to not record them
+	 */
+	public void setGameLog(Connect4GameLog gameLog) {
+		this.gameLog = gameLog;
+	}
+
+	/**
+	 * run()
+	 * play the games and wait for all of them.
+	 * @param games the number of games
+	 * @return the results of the games
+	 */
+	public Connect4SimulationResult run(long games) {
+		long start = System.nanoTime();
+		AtomicLong next = new AtomicLong();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> results = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			results.add(pool.submit(() -> playGames(next, games)));
+		}
+		long[] total = new long[4];
+		try {
+			for (Future<long[]> result : results) {
+				long[] counts = result.get();
+				for (int i = 0; i < total.length; i++) {
+					total[i] += counts[i];
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("a game failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return new Connect4SimulationResult(total[0], total[1], total[2], total[3], System.nanoTime() - start);
+	}
+
+	/**
+	 * playGames()
+	 * the work of one thread: take games from the shared counter until all are played.
+	 * @param next the number of games already taken
+	 * @param games the number of games
+	 * @return the X wins, O wins, ties and moves of this thread
+	 */
+	private long[] playGames(AtomicLong next, long games)
+			throws Connect4IllegalColumnException, Connect4FullColumnException, IOException {
+		Connect4Engine x = xPlayer.get();
+		Connect4Controller controller = new Connect4Controller(new Connect4Model());
+		controller.setEngine(oPlayer.get());
+		long[] counts = new long[4];
+		byte[] columns = new byte[Connect4GameLog.MAX_RECORD - 1];
+		while (next.getAndIncrement() < games) {
+			controller.newModel();
+			Connect4Model model = controller.getModel();
+			while (!controller.isGameOver()) {
+				if (model.isXTurn()) {
+					controller.humanTurn(x.bestMove(model));
+				} else {
+					controller.computerTurn();
+				}
+				columns[model.getMoveCount() - 1] = (byte) model.getLastColumn();
+			}
+			if (gameLog != null) {
+				gameLog.append(columns, model.getMoveCount());
+			}
+			if (controller.playerWin()) {
+				counts[0]++;
+			} else if (controller.computerWin()) {
+				counts[1]++;
+			} else {
+				counts[2]++;
+			}
+			counts[3] += model.getMoveCount();
+		}
+		return counts;
+	}
+
+	/**
+	 * main() method
+	 * play random X against a negamax O and print the results.
+	 * @param args the number of games, the number of threads and the depth of O, all optional
+	 */
+	public static void main(String[] args) {
+		long games = args.length > 0 ? Long.parseLong(args[0]) : 10000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int depth = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		Connect4Simulator simulator = new Connect4Simulator(Connect4RandomEngine::new,
+				() -> new Connect4NegamaxEngine(depth), threads);
+		System.out.println(simulator.run(games));
+	}
+}
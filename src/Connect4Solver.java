@@ -0,0 +1,314 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connect4Solver
+ * plays the end of the game perfectly: it searches every move to the end of the game and knows if the position
+ * is a win, a tie or a loss for the player who plays next.
+ * the search works on the bitboards only, it asks two yes-or-no questions with a window of width one
+ * ("can I win?", then "can I at least tie?"), which cut far more than a full window,
+ * never plays under a place where the other player would win, and tries first the moves that make the most threats.
+ * the results of the positions searched are kept in a small table, and a solved endgame database is looked up
+ * before searching if there is one.
+ * it is meant for positions with few empty places, see canSolve(). one search runs at a time, the others wait.
+ * @author wentao
+ *
+ */
+public class Connect4Solver implements Connect4Engine {
+	/**
+	 * the results, for the player who plays next.
+	 */
+	public static final int LOSS = -1;
+	public static final int TIE = 0;
+	public static final int WIN = 1;
+
+	/**
+	 * the bound types of the table: the stored value is exact, at least the real one, or at most the real one.
+	 */
+	private static final int EXACT = 0;
+	private static final int LOWER = 1;
+	private static final int UPPER = 2;
+
+	private static final long FULL_MASK = Connect4Model.FULL_MASK;
+	private static final long BOTTOM = FULL_MASK & ~(FULL_MASK << 1);
+	private static final int CELLS = Connect4Model.BOARD_ROW * Connect4Model.BOARD_COLUMN;
+
+	private final int maxEmpty;
+	private final Connect4EndgameDatabase database;
+	/**
+	 * the table: the key of a position (its bitboard plus its mask, which is unique, plus 1 so that no position
+	 * has the key 0 of an empty slot) and the value with its bound.
+	 */
+	private final long[] keys;
+	private final byte[] values;
+	private final int tableMask;
+	/**
+	 * the moves and their order of every search depth, by the number of tokens, so the search creates no array.
+	 */
+	private final long[][] moves = new long[CELLS + 1][Connect4Model.BOARD_COLUMN];
+	private final int[][] order = new int[CELLS + 1][Connect4Model.BOARD_COLUMN];
+	private long nodes;
+	private long databaseProbes;
+	private long databaseHits;
+	/**
+	 * the numbers already added to the metrics by addStats().
+	 */
+	private long reportedNodes;
+	private long reportedProbes;
+	private long reportedHits;
+	private volatile boolean stopped;
+	private volatile AtomicBoolean stopToken;
+
+	/**
+	 * the constructor of the solver.
+	 * @param maxEmpty the most empty places of a position it is used for, see canSolve()
+	 * @param database the solved positions to look up first, null if there is none
+	 */
+	public Connect4Solver(int maxEmpty, Connect4EndgameDatabase database) {
+		if (maxEmpty < 0 || maxEmpty > CELLS) {
+			throw new IllegalArgumentException("maxEmpty should be between 0 and " + CELLS);
+		}
+		this.maxEmpty = maxEmpty;
+		this.database = database;
+		keys = new long[1 << 20];
+		values = new byte[keys.length];
+		tableMask = keys.length - 1;
+	}
+
+	/**
+	 * getMaxEmpty()
+	 * @return the most empty places of a position the solver is used for
+	 */
+	public int getMaxEmpty() {
+		return maxEmpty;
+	}
+
+	/**
+	 * getDatabase()
+	 * @return the solved positions looked up first, null if there is none
+	 */
+	public Connect4EndgameDatabase getDatabase() {
+		return database;
+	}
+
+	/**
+	 * getNodes()
+	 * @return the number of positions searched since the solver was created
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * addStats()
+	 * add the nodes and the database lookups since the last call to the metrics.
+	 * @param metrics the metrics of the game
+	 */
+	@Override
+	public synchronized void addStats(Connect4Metrics metrics) {
+		metrics.count(Connect4Metrics.AI_SEARCHES, 1);
+		metrics.count(Connect4Metrics.AI_NODES, nodes - reportedNodes);
+		metrics.count(Connect4Metrics.DATABASE_PROBES, databaseProbes - reportedProbes);
+		metrics.count(Connect4Metrics.DATABASE_HITS, databaseHits - reportedHits);
+		reportedNodes = nodes;
+		reportedProbes = databaseProbes;
+		reportedHits = databaseHits;
+	}
+
+	/**
+	 * canSolve()
+	 * @param model the model of the game
+	 * @return true if the position is on the standard board and has few enough empty places for the solver
+	 */
+	public boolean canSolve(Connect4Model model) {
+		return model.isStandard() && CELLS - model.getMoveCount() <= maxEmpty;
+	}
+
+	/**
+	 * stop()
+	 * ask a running search to stop, its result is then meaningless.
+	 */
+	@Override
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * setStopToken()
+	 * @param token the stop token of the next searches, null for none
+	 */
+	@Override
+	public void setStopToken(AtomicBoolean token) {
+		this.stopToken = token;
+	}
+
+	/**
+	 * clearStop()
+	 * clear the stop request when a search starts, unless the stop token is set.
+	 * the request is cleared before the token is read, so a stop() that comes with the token is never lost.
+	 */
+	private void clearStop() {
+		stopped = false;
+		if (stopToken != null && stopToken.get()) {
+			stopped = true;
+		}
+	}
+
+	/**
+	 * solve()
+	 * @param model the model of the game, the game must not be over
+	 * @return WIN, TIE or LOSS for the player who plays next, with perfect play from both
+	 */
+	public synchronized int solve(Connect4Model model) {
+		if (!supports(model)) {
+			throw new IllegalArgumentException("the engine only plays the standard board");
+		}
+		clearStop();
+		return solve(model.getCurrentBoard(), model.getMask(), model);
+	}
+
+	/**
+	 * bestMove()
+	 * a move that keeps the best result: a win if there is one, otherwise a tie, otherwise any move.
+	 * among the moves with the same result, the one closest to the center is played.
+	 * @param model the model of the game
+	 * @return the column to play, -1 if the board is full
+	 */
+	@Override
+	public synchronized int bestMove(Connect4Model model) {
+		if (!supports(model)) {
+			throw new IllegalArgumentException("the engine only plays the standard board");
+		}
+		clearStop();
+		int best = -1;
+		int bestResult = LOSS - 1;
+		for (int column : Connect4NegamaxEngine.MOVE_ORDER) {
+			if (!model.canPlay(column)) {
+				continue;
+			}
+			if (model.isWinningMove(column)) {
+				return column;
+			}
+			model.makeMove(column);
+			int result = model.isFull() ? TIE : -solve(model.getCurrentBoard(), model.getMask(), model);
+			model.unmakeMove(column);
+			if (result > bestResult) {
+				bestResult = result;
+				best = column;
+				if (result == WIN) {
+					break;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * solve()
+	 * @param current the bitboard of the player who plays next
+	 * @param mask the bitboard of every place that has a token
+	 * @param model the model of the position, for the database
+	 * @return WIN, TIE or LOSS
+	 */
+	private int solve(long current, long mask, Connect4Model model) {
+		if (database != null) {
+			int result = database.lookup(model);
+			databaseProbes++;
+			if (result != Connect4EndgameDatabase.UNKNOWN) {
+				databaseHits++;
+				return result;
+			}
+		}
+		if (negamax(current, mask, TIE, WIN) >= WIN) {
+			return WIN;
+		}
+		return negamax(current, mask, LOSS, TIE) >= TIE ? TIE : LOSS;
+	}
+
+	/**
+	 * negamax()
+	 * @param current the bitboard of the player who plays next
+	 * @param mask the bitboard of every place that has a token
+	 * @param alpha the result the player is already sure to get
+	 * @param beta the result the other player is already sure to get
+	 * @return the result of the position if it is between alpha and beta, otherwise a bound of it
+	 */
+	private int negamax(long current, long mask, int alpha, int beta) {
+		nodes++;
+		if (stopped) {
+			return TIE;
+		}
+		long possible = (mask + BOTTOM) & FULL_MASK;
+		if (possible == 0) {
+			return TIE; // the board is full
+		}
+		if ((Connect4Model.winningCells(current, mask) & possible) != 0) {
+			return WIN;
+		}
+		long threats = Connect4Model.winningCells(current ^ mask, mask);
+		long forced = threats & possible;
+		if (forced != 0) {
+			if ((forced & (forced - 1)) != 0) {
+				return LOSS; // two places to block at once
+			}
+			possible = forced;
+		}
+		possible &= ~(threats >>> 1); // don't play under a place where the other player wins
+		if (possible == 0) {
+			return LOSS;
+		}
+		long key = current + mask + 1; // the empty board would match every empty slot with key 0
+		int slot = (int) (key ^ (key >>> 29)) & tableMask;
+		int alphaStart = alpha;
+		if (keys[slot] == key) {
+			int value = values[slot] >> 2;
+			int bound = values[slot] & 3;
+			if (bound == EXACT) {
+				return value;
+			} else if (bound == LOWER) {
+				alpha = Math.max(alpha, value);
+			} else {
+				beta = Math.min(beta, value);
+			}
+			if (alpha >= beta) {
+				return value;
+			}
+		}
+		// the moves, the ones that make the most threats first, from the center out when they make as many
+		long[] moves = this.moves[Long.bitCount(mask)];
+		int[] order = this.order[Long.bitCount(mask)];
+		int count = 0;
+		for (int column : Connect4NegamaxEngine.MOVE_ORDER) {
+			long move = possible & (((1L << Connect4Model.BOARD_ROW) - 1) << (column * Connect4Model.HEIGHT));
+			if (move != 0) {
+				int score = Long.bitCount(Connect4Model.winningCells(current | move, mask | move));
+				int i = count++;
+				for (; i > 0 && order[i - 1] < score; i--) {
+					moves[i] = moves[i - 1];
+					order[i] = order[i - 1];
+				}
+				moves[i] = move;
+				order[i] = score;
+			}
+		}
+		int best = LOSS;
+		for (int i = 0; i < count; i++) {
+			int value = -negamax(current ^ mask, mask | moves[i], -beta, -alpha);
+			if (stopped) {
+				return TIE;
+			}
+			if (value > best) {
+				best = value;
+			}
+			if (value > alpha) {
+				alpha = value;
+			}
+			if (alpha >= beta) {
+				break;
+			}
+		}
+		int bound = best <= alphaStart ? UPPER : best >= beta ? LOWER : EXACT;
+		keys[slot] = key;
+		values[slot] = (byte) ((best << 2) | bound);
+		return best;
+	}
+}
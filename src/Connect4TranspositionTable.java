@@ -0,0 +1,175 @@
+/**
+ * Connect4TranspositionTable
+ * remembers the result of searched positions by their Zobrist hash, so a position reached again
+ * through other moves doesn't need to be searched again.
+ * the entries are packed into two long arrays, there is no object per entry, and the size is fixed
+ * when the table is created.
+ * each hash goes to a bucket of two entries: the first keeps the deepest search, the second always takes the newest one.
+ * the table can be shared by several search threads without locks: the key is stored xor-ed with the data,
+ * so an entry written by two threads at once doesn't match any hash and is just a miss.
+ * the engine stores a position and its mirror under one canonical hash, with the move of the canonical board.
+ * @author wentao
+ *
+ */
+public class Connect4TranspositionTable {
+	/**
+	 * the bound types, the stored score is exact, at least the real score, or at most the real score.
+	 */
+	public static final int EXACT = 1;
+	public static final int LOWER = 2;
+	public static final int UPPER = 3;
+
+	/**
+	 * the column stored when the entry has no best move.
+	 */
+	public static final int NO_MOVE = 0xFF;
+
+	/**
+	 * the size of one entry: the hash and the packed data.
+	 */
+	private static final int ENTRY_BYTES = 16;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int mask;
+	private int generation;
+
+	/**
+	 * the constructor of the table.
+	 * @param megabytes the memory used by the table, it is rounded down to a power of two entries
+	 */
+	public Connect4TranspositionTable(int megabytes) {
+		if (megabytes < 1) {
+			throw new IllegalArgumentException("the table needs at least 1 MB");
+		}
+		long entries = Long.highestOneBit((long) megabytes * 1024 * 1024 / ENTRY_BYTES);
+		if (entries > (1 << 30)) {
+			entries = 1 << 30;
+		}
+		keys = new long[(int) entries];
+		data = new long[(int) entries];
+		mask = (int) entries - 1;
+	}
+
+	/**
+	 * getCapacity()
+	 * @return the number of entries the table can hold
+	 */
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	/**
+	 * newSearch()
+	 * start a new search, the entries of older searches are replaced first.
+	 */
+	public void newSearch() {
+		generation = (generation + 1) & 0xFF;
+	}
+
+	/**
+	 * clear()
+	 * remove every entry.
+	 */
+	public void clear() {
+		java.util.Arrays.fill(keys, 0L);
+		java.util.Arrays.fill(data, 0L);
+	}
+
+	/**
+	 * probe()
+	 * look for the position in the table.
+	 * @param hash the Zobrist hash of the position
+	 * @return the packed entry, 0 if the position is not in the table
+	 */
+	public long probe(long hash) {
+		int i = (int) hash & mask & ~1;
+		long entry = data[i];
+		if (entry != 0 && (keys[i] ^ entry) == hash) {
+			return entry;
+		}
+		entry = data[i + 1];
+		if (entry != 0 && (keys[i + 1] ^ entry) == hash) {
+			return entry;
+		}
+		return 0L;
+	}
+
+	/**
+	 * store()
+	 * save the result of a search. the first entry of the bucket is replaced when the new search is
+	 * at least as deep or the entry is from an older search, otherwise the second entry is replaced.
+	 * @param hash the Zobrist hash of the position
+	 * @param depth how deep the position was searched
+	 * @param bound EXACT, LOWER or UPPER
+	 * @param score the score of the position
+	 * @param move the best column, NO_MOVE if there is none
+	 */
+	public void store(long hash, int depth, int bound, int score, int move) {
+		int i = (int) hash & mask & ~1;
+		long entry = pack(depth, bound, score, move);
+		long old = data[i];
+		if (old == 0 || (keys[i] ^ old) == hash || depth >= depth(old) || age(old) != generation) {
+			keys[i] = hash ^ entry;
+			data[i] = entry;
+		} else {
+			keys[i + 1] = hash ^ entry;
+			data[i + 1] = entry;
+		}
+	}
+
+	/**
+	 * pack()
+	 * score in bits 0-31, depth in 32-39, bound in 40-41, move in 42-49 and the generation in 50-57.
+	 * @return the packed entry
+	 */
+	private long pack(int depth, int bound, int score, int move) {
+		return (score & 0xFFFFFFFFL) | ((long) (depth & 0xFF) << 32) | ((long) bound << 40)
+				| ((long) (move & 0xFF) << 42) | ((long) generation << 50);
+	}
+
+	/**
+	 * score()
+	 * @param entry a packed entry returned by probe()
+	 * @return the stored score
+	 */
+	public static int score(long entry) {
+		return (int) entry;
+	}
+
+	/**
+	 * depth()
+	 * @param entry a packed entry returned by probe()
+	 * @return how deep the position was searched
+	 */
+	public static int depth(long entry) {
+		return (int) (entry >>> 32) & 0xFF;
+	}
+
+	/**
+	 * bound()
+	 * @param entry a packed entry returned by probe()
+	 * @return EXACT, LOWER or UPPER
+	 */
+	public static int bound(long entry) {
+		return (int) (entry >>> 40) & 0x3;
+	}
+
+	/**
+	 * move()
+	 * @param entry a packed entry returned by probe()
+	 * @return the best column, NO_MOVE if there is none
+	 */
+	public static int move(long entry) {
+		return (int) (entry >>> 42) & 0xFF;
+	}
+
+	/**
+	 * age()
+	 * @param entry a packed entry
+	 * @return the generation of the search that stored it
+	 */
+	private static int age(long entry) {
+		return (int) (entry >>> 50) & 0xFF;
+	}
+}
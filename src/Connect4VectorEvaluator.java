@@ -0,0 +1,203 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Connect4VectorEvaluator
+ * the batch evaluator with the Vector API: each long lane holds one board, so the line checks of
+ * isWin() and winningCells() run on as many boards at once as the CPU has lanes, e.g. 8 with AVX-512.
+ * the population counts are done with shifts, masks and a multiply (SWAR), the Vector API of Java 17
+ * has no bit count.
+ * it needs the jdk.incubator.vector module to compile and to run: "javac --add-modules jdk.incubator.vector"
+ * and "java --add-modules jdk.incubator.vector", Connect4BatchEvaluator.create() falls back to the
+ * scalar evaluator without it.
+ * an evaluator keeps the cells of its chunk between the calls, so it evaluates one batch at a time:
+ * each thread needs its own.
+ * @author wentao
+ *
+ */
+public class Connect4VectorEvaluator extends Connect4BatchEvaluator {
+	private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+	/**
+	 * the ints of the results, as many lanes as LONGS in half the bits.
+	 */
+	private static final VectorSpecies<Integer> INTS =
+			VectorSpecies.of(int.class, VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+	private static final int H = Connect4Model.HEIGHT;
+	/**
+	 * the boards done per round, their cells stay in the cache between the steps.
+	 */
+	private static final int CHUNK = 512;
+
+	/**
+	 * the empty places of the boards of the chunk, reused by every call.
+	 */
+	private final long[] cells = new long[CHUNK];
+
+	/**
+	 * getName()
+	 * @return the name of the evaluator and how many boards it does at once
+	 */
+	@Override
+	public String getName() {
+		return "vector (" + LONGS.length() + " lanes)";
+	}
+
+	/**
+	 * evaluate()
+	 * evaluate the boards a vector at a time, CHUNK boards per round, and the last few one by one.
+	 * each step has its own small loop and passes its results through the cells of the chunk:
+	 * a loop doing everything is too big for the JIT, it stops inlining the Vector API and every vector
+	 * becomes an object, about 3 times slower than the scalar evaluator instead of 3 times faster.
+	 */
+	@Override
+	public void evaluate(long[] x, long[] o, int count, int[] wins, int[] xThreats, int[] oThreats, int[] scores) {
+		checkSizes(x, o, count, wins, xThreats, oThreats, scores);
+		int end = LONGS.loopBound(count);
+		long[] cells = this.cells;
+		for (int start = 0; start < end; start += CHUNK) {
+			int stop = Math.min(end, start + CHUNK);
+			cells(x, o, start, stop, cells);
+			count(cells, start, stop, xThreats);
+			cells(o, x, start, stop, cells);
+			count(cells, start, stop, oThreats);
+			wins(x, o, start, stop, cells);
+			copy(cells, start, stop, wins);
+			scores(x, o, start, stop, wins, xThreats, oThreats, scores);
+		}
+		evaluate(x, o, end, count, wins, xThreats, oThreats, scores);
+	}
+
+	/**
+	 * cells()
+	 * @param b the bitboards of the player
+	 * @param other the bitboards of the other player
+	 * @param start the first board, a multiple of the lanes
+	 * @param stop the board after the last one, a multiple of the lanes
+	 * @param cells gets the empty places where the player would finish a line, from index 0
+	 */
+	private static void cells(long[] b, long[] other, int start, int stop, long[] cells) {
+		for (int i = start; i < stop; i += LONGS.length()) {
+			LongVector mine = LongVector.fromArray(LONGS, b, i);
+			LongVector empty = mine.or(LongVector.fromArray(LONGS, other, i))
+					.lanewise(VectorOperators.XOR, Connect4Model.FULL_MASK);
+			winningCells(mine).and(empty).intoArray(cells, i - start);
+		}
+	}
+
+	/**
+	 * count()
+	 * @param cells the places of the boards from start, from index 0
+	 * @param threats gets the number of places of each board
+	 */
+	private static void count(long[] cells, int start, int stop, int[] threats) {
+		for (int i = start; i < stop; i += LONGS.length()) {
+			toInts(bitCount(LongVector.fromArray(LONGS, cells, i - start))).intoArray(threats, i);
+		}
+	}
+
+	/**
+	 * wins()
+	 * @param cells gets X_WINS and O_WINS for each board, from index 0
+	 */
+	private static void wins(long[] x, long[] o, int start, int stop, long[] cells) {
+		for (int i = start; i < stop; i += LONGS.length()) {
+			LongVector xWins = isWin(LongVector.fromArray(LONGS, x, i));
+			LongVector oWins = isWin(LongVector.fromArray(LONGS, o, i));
+			// the highest bit of v | -v is set if v is not 0
+			xWins.or(xWins.neg()).lanewise(VectorOperators.LSHR, 63)
+					.or(oWins.or(oWins.neg()).lanewise(VectorOperators.LSHR, 62).and(O_WINS))
+					.intoArray(cells, i - start);
+		}
+	}
+
+	/**
+	 * copy()
+	 * @param cells the values of the boards from start, from index 0
+	 * @param ints gets the values as ints
+	 */
+	private static void copy(long[] cells, int start, int stop, int[] ints) {
+		for (int i = start; i < stop; i += LONGS.length()) {
+			toInts(LongVector.fromArray(LONGS, cells, i - start)).intoArray(ints, i);
+		}
+	}
+
+	/**
+	 * scores()
+	 * the scores, from the wins and the threats already found.
+	 */
+	private static void scores(long[] x, long[] o, int start, int stop, int[] wins, int[] xThreats, int[] oThreats,
+			int[] scores) {
+		for (int i = start; i < stop; i += LONGS.length()) {
+			IntVector center = toInts(bitCount(LongVector.fromArray(LONGS, x, i).and(CENTER))
+					.sub(bitCount(LongVector.fromArray(LONGS, o, i).and(CENTER))));
+			IntVector won = IntVector.fromArray(INTS, wins, i);
+			IntVector.fromArray(INTS, xThreats, i).sub(IntVector.fromArray(INTS, oThreats, i))
+					.lanewise(VectorOperators.LSHL, 4).add(center.lanewise(VectorOperators.LSHL, 1))
+					.blend(-Connect4NegamaxEngine.WIN_SCORE, won.compare(VectorOperators.EQ, O_WINS))
+					.blend(Connect4NegamaxEngine.WIN_SCORE, won.and(X_WINS).compare(VectorOperators.NE, 0))
+					.intoArray(scores, i);
+		}
+	}
+
+	/**
+	 * isWin()
+	 * @return a lane that is not 0 where the board of the lane has a line, like Connect4Model.isWin()
+	 */
+	private static LongVector isWin(LongVector b) {
+		return pairs(b, 1).or(pairs(b, H)).or(pairs(b, H - 1)).or(pairs(b, H + 1));
+	}
+
+	/**
+	 * pairs()
+	 * @return the tokens that start a line of four in the direction of step
+	 */
+	private static LongVector pairs(LongVector b, int step) {
+		LongVector m = b.and(b.lanewise(VectorOperators.LSHR, step));
+		return m.and(m.lanewise(VectorOperators.LSHR, 2 * step));
+	}
+
+	/**
+	 * winningCells()
+	 * @return the places that finish a line, like Connect4Model.winningCells() before the empty places are kept
+	 */
+	private static LongVector winningCells(LongVector b) {
+		LongVector r = b.lanewise(VectorOperators.LSHL, 1).and(b.lanewise(VectorOperators.LSHL, 2))
+				.and(b.lanewise(VectorOperators.LSHL, 3)); // vertical
+		return r.or(lineEnds(b, H)).or(lineEnds(b, H - 1)).or(lineEnds(b, H + 1));
+	}
+
+	/**
+	 * lineEnds()
+	 * @return the places that finish a line of the direction of step, see Connect4Model.lineEnds()
+	 */
+	private static LongVector lineEnds(LongVector b, int step) {
+		LongVector up = b.lanewise(VectorOperators.LSHL, step);
+		LongVector down = b.lanewise(VectorOperators.LSHR, step);
+		LongVector p = up.and(b.lanewise(VectorOperators.LSHL, 2 * step));
+		LongVector r = p.and(b.lanewise(VectorOperators.LSHL, 3 * step)).or(p.and(down));
+		p = down.and(b.lanewise(VectorOperators.LSHR, 2 * step));
+		return r.or(p.and(up)).or(p.and(b.lanewise(VectorOperators.LSHR, 3 * step)));
+	}
+
+	/**
+	 * bitCount()
+	 * @return the number of bits set in each lane, counted in pairs, then nibbles, then bytes added up by a multiply
+	 */
+	private static LongVector bitCount(LongVector v) {
+		v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(0x5555555555555555L));
+		v = v.and(0x3333333333333333L).add(v.lanewise(VectorOperators.LSHR, 2).and(0x3333333333333333L));
+		v = v.add(v.lanewise(VectorOperators.LSHR, 4)).and(0x0F0F0F0F0F0F0F0FL);
+		return v.mul(0x0101010101010101L).lanewise(VectorOperators.LSHR, 56);
+	}
+
+	/**
+	 * toInts()
+	 * @return the lanes as ints, the values are small enough
+	 */
+	private static IntVector toInts(LongVector v) {
+		return (IntVector) v.convertShape(VectorOperators.L2I, INTS, 0);
+	}
+}
@@ -1,12 +1,14 @@
 import javafx.scene.paint.Color;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.CompletableFuture;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -15,6 +17,7 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
@@ -30,16 +33,68 @@ import javafx.stage.Stage;
  * it extends the application class. it shows the image of the game, 
  * uses JavaFX to display the GUI described above and is an Observer
  * and create an mouseEvent handler to let user interact with the game.
+ * the moves are drawn through a render queue once per frame, so a replay can go faster than the screen.
+ * the computer's moves are searched by a negamax engine in the background, see Connect4AIExecutor.
+ * the board size can be given on the command line, e.g. "--rows=20 --columns=20 --connect=5".
  * @author wentao
  *
  */
 public class Connect4View extends Application implements Observer{
+	/**
+	 * the speed of "Replay moves", "Fast-forward moves" plays them as fast as possible.
+	 */
+	static final int REPLAY_MOVES_PER_SECOND = 4;
+	/**
+	 * the radius of a circle and the space around it, a big board gets smaller circles.
+	 */
+	static final int RADIUS = 20;
+	static final int GAP = 8;
+	static final int BOARD_PIXELS = 480;
+	/**
+	 * the time the computer takes for a move, and the memory of its transposition table.
+	 */
+	static final long COMPUTER_MILLIS = 1000;
+	static final int TABLE_MB = 16;
 	double xPos;
 	double yPos;
-	Connect4Controller controller = new Connect4Controller();
+	int radius;
+	Connect4Controller controller; // made in init(), for the board size of the command line
+	Connect4AIExecutor ai = new Connect4AIExecutor(Connect4View::newEngine, 1);
+	CompletableFuture<Connect4MoveMessage> thinking = null; // the computer's move being searched
 	TilePane tilePane = new TilePane();
-	Circle[][] array = new Circle[controller.getRows()][controller.getCols()]; // create a array to store the circle
+	Circle[][] array; // create a array to store the circle
+	Connect4RenderQueue render;
+	Thread replay = null;
 	
+	/**
+	 * init()
+	 * read the board size of the command line, the standard board if there is none, and make the controller.
+	 */
+	@Override
+	public void init() {
+		Map<String, String> named = getParameters().getNamed();
+		int rows = Integer.parseInt(named.getOrDefault("rows", "" + Connect4Model.BOARD_ROW));
+		int columns = Integer.parseInt(named.getOrDefault("columns", "" + Connect4Model.BOARD_COLUMN));
+		int connect = Integer.parseInt(named.getOrDefault("connect", "" + Connect4Model.CONNECT));
+		controller = new Connect4Controller(rows, columns, connect);
+		array = new Circle[controller.getRows()][controller.getCols()];
+		render = new Connect4RenderQueue(array);
+		radius = Math.min(RADIUS, BOARD_PIXELS / 2 / Math.max(controller.getRows(), controller.getCols()));
+	}
+	
+	/**
+	 * newEngine()
+	 * the engine of the computer's moves, it searches as deep as it can in COMPUTER_MILLIS.
+	 * on a board of another size the controller plays the simple moves instead.
+	 * @return a new engine
+	 */
+	static Connect4Engine newEngine() {
+		Connect4Engine engine = new Connect4NegamaxEngine(Connect4NegamaxEngine.MAX_PLY - 1,
+				new Connect4TranspositionTable(TABLE_MB));
+		engine.setTimeBudget(COMPUTER_MILLIS);
+		return engine;
+	}
+
 	/**
 	 * start()
 	 * create a bunch of circles and locate them use tilepane.
@@ -50,42 +105,54 @@ public class Connect4View extends Application implements Observer{
 	@Override
 	public void start(Stage stage) {
 		controller.addObserver(this);
-		int radius = 20;
+		controller.startAutosave();
+		try {
+			controller.startGameLog(Paths.get(Connect4Controller.GAME_LOG_FILE));
+		} catch (IOException e) {
+			System.out.println("unable to record the games: " + e.getMessage());
+		}
 		
-		// update the board view when each game starts, the board could be either saved or unsaved
+		// update the board view when each game starts, the board could be either saved or unsaved.
+		// the saved tokens are drawn by the render queue in the first frame
 		for (int k= 0; k < controller.getRows();k++) {
 			for (int l = 0; l < controller.getCols();l++) {
+				Circle circle = new Circle(radius,Color.WHITE); 
+				tilePane.getChildren().add(circle);
+				array[k][l] = circle;
 				if (controller.getAt(k, l).equals("X")) {
-					Circle circle = new Circle(radius,Color.YELLOW); 
-					tilePane.getChildren().add(circle);
-					array[k][l] = circle;
+					render.set(k, l, Color.YELLOW);
 				}
 				else if (controller.getAt(k, l).equals("O")) {
-					Circle circle = new Circle(radius,Color.RED); 
-					tilePane.getChildren().add(circle);
-					array[k][l] = circle;
-				}else {
-					Circle circle = new Circle(radius,Color.WHITE); 
-					tilePane.getChildren().add(circle);
-					array[k][l] = circle;
+					render.set(k, l, Color.RED);
 				}
 			}
 		}
+		render.start();
 
 		tilePane.setPrefColumns(controller.getCols());
 		tilePane.setPrefRows(controller.getRows());
 		tilePane.setBackground(new Background(new BackgroundFill(Color.BLUE, CornerRadii.EMPTY, Insets.EMPTY)));
-		tilePane.setHgap(8);
-		tilePane.setVgap(8);
-		tilePane.setPadding(new Insets(8, 8, 8, 8));
+		tilePane.setHgap(GAP);
+		tilePane.setVgap(GAP);
+		tilePane.setPadding(new Insets(GAP, GAP, GAP, GAP));
 		
 		// add the menu 
 		MenuBar menu = new MenuBar(); 
 		Menu menu1 = new Menu("File");
 		MenuItem game = new MenuItem("New game");
+		MenuItem replayItem = new MenuItem("Replay moves");
+		MenuItem fastForward = new MenuItem("Fast-forward moves");
 		
 		menu1.getItems().add(game);
+		menu1.getItems().add(replayItem);
+		menu1.getItems().add(fastForward);
 		menu.getMenus().add(menu1); 
+		Menu edit = new Menu("Edit");
+		MenuItem undo = new MenuItem("Undo move");
+		MenuItem redo = new MenuItem("Redo move");
+		edit.getItems().add(undo);
+		edit.getItems().add(redo);
+		menu.getMenus().add(edit);
 		
         StackPane root = new StackPane();
 		VBox pane = new VBox();
@@ -96,34 +163,44 @@ public class Connect4View extends Application implements Observer{
         // also reset the statue of the board
         game.setOnAction(new EventHandler<ActionEvent>() {
         	@Override public void handle(ActionEvent e) {
+        		ai.cancel(thinking); // drop the computer's move of the old game
+        		thinking = null;
+        		stopReplay();
         		EventHandler<MouseEvent> handler = new MyMouseHandler();
         		tilePane.setOnMouseClicked(handler);	
-        		//delete old file first
-        		File file = new File("save_game.dat"); 
-        		file.delete();
-        		controller.newModel(); 
-        		for (int k= 0; k < controller.getRows();k++) {
-        			for (int l = 0; l < controller.getCols();l++) {
-        					array[k][l].setFill(Color.WHITE);
-        			}
-        		}
+        		controller.newModel(); // also deletes the old file in the background
+        		render.fill(Color.WHITE);
         	}      		
         });
+        replayItem.setOnAction(e -> startReplay(REPLAY_MOVES_PER_SECOND));
+        // the computer's move being searched is dropped, the board changes come back through update()
+        undo.setOnAction(e -> {
+        	ai.cancel(thinking);
+        	thinking = null;
+        	stopReplay();
+        	controller.undo();
+        	resume();
+        });
+        redo.setOnAction(e -> {
+        	ai.cancel(thinking);
+        	thinking = null;
+        	stopReplay();
+        	controller.redo();
+        	resume();
+        });
+        fastForward.setOnAction(e -> startReplay(0));
         
 		EventHandler<MouseEvent> handler = new MyMouseHandler();
 		tilePane.setOnMouseClicked(handler);
 		
-		// when quit, save the game if the game is not finished
+		// when quit, save the game if the game is not finished, the writer does it in the background
 		stage.setOnCloseRequest((event)->{
-			try {
-				if(!controller.computerWin()&&!controller.playerWin()&& !controller.isGameOver()) {
-					controller.saveGame();
-				}
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			} 
+			stopReplay();
+			render.stop();
+			ai.cancel(thinking);
+			ai.shutdown();
+			controller.closeSave();
+			controller.closeGameLog();
 		});
 		
         Scene scene = new Scene(root);
@@ -137,7 +214,8 @@ public class Connect4View extends Application implements Observer{
 	
 	/**
 	 * MyMouseHandler class
-	 * handler the mouse clicked event. transfer the click position to the associated column.
+	 * handler the mouse clicked event. transfer the click position to the associated column,
+	 * a column takes a circle and a gap, the click goes to the nearest column.
 	 * and do the humanturn and computerturn method in the controller.
 	 * @author wentao
 	 *
@@ -146,55 +224,156 @@ public class Connect4View extends Application implements Observer{
 	    public void handle(MouseEvent e) {
 	    	xPos = e.getX();
 	    	yPos = e.getY();
-	    	int column = 0;
-	    	for (int i =0; i < controller.getCols();i++) {
-	    		if (i ==0) {
-		    		if (xPos<= 52) {
-		    			column = 0;
-		    		}
-		    	}else if( i == controller.getCols()-1) {
-		    		if (xPos > 52 + 48*(i-1)) {
-		    			column = controller.getCols()-1;
-		    		}
-		    	}else {
-		    		if( xPos > (52 + 48*(i-1)) && xPos <= 52+48*i) {
-		    			column = i;
-		    		}
-		    	}
-	    	} // transfer the click position to the associated column
+	    	int column = (int) Math.floor((xPos - GAP + GAP / 2.0) / (2 * radius + GAP));
+	    	column = Math.max(0, Math.min(controller.getCols() - 1, column)); // transfer the click position to the associated column
 	    	try {
 				controller.humanTurn(column);
 				if (controller.playerWin()) {
 					new Alert(Alert.AlertType.INFORMATION, "you win!").showAndWait();
 					tilePane.setOnMouseClicked(null); // disable any further move
-	    			File file = new File("save_game.dat");
-	        		file.delete();
-				}
-				if(!controller.playerWin()){
-					controller.computerTurn();
-					if (controller.computerWin()) {
-						new Alert(Alert.AlertType.INFORMATION, "you lose!").showAndWait();
-						tilePane.setOnMouseClicked(null); // disable any further move
-			    		File file = new File("save_game.dat");
-			       		file.delete();
-			       	}
-				}
-				if(!controller.computerWin() && !controller.playerWin() && controller.isGameOver()) {
-					new Alert(Alert.AlertType.INFORMATION, "tie game!").showAndWait();
+					controller.deleteSave();
+				} else if (controller.isGameOver()) {
+					tieGame();
+				} else {
+					// the computer thinks in the background, no move until it has played
 					tilePane.setOnMouseClicked(null);
-					File file = new File("save_game.dat");
-		       		file.delete();
-				} // tie game
+					CompletableFuture<Connect4MoveMessage> move = ai.submit(controller);
+					thinking = move;
+					move.thenAccept(message -> Platform.runLater(() -> computerMoved(move, message)));
+				}
 			} catch (Connect4IllegalColumnException | Connect4FullColumnException e1) {
 				new Alert(Alert.AlertType.ERROR, "column is full!").showAndWait();
 			}
 	    }
 	  }
 
+	/**
+	 * computerMoved()
+	 * play the computer's move once the AI executor found it, on the JavaFX thread.
+	 * a move of a game that was replaced by a new one is dropped.
+	 * @param move the future the move came from
+	 * @param message the computer's move
+	 */
+	private void computerMoved(CompletableFuture<Connect4MoveMessage> move, Connect4MoveMessage message) {
+		if (move != thinking) {
+			return;
+		}
+		thinking = null;
+		controller.placeComputerMove(message.getColumn());
+		if (controller.computerWin()) {
+			new Alert(Alert.AlertType.INFORMATION, "you lose!").showAndWait();
+			controller.deleteSave();
+		} else if (controller.isGameOver()) {
+			tieGame();
+		} else {
+			tilePane.setOnMouseClicked(new MyMouseHandler());
+		}
+	}
+
+	/**
+	 * startReplay()
+	 * ask for the columns of the moves, e.g. "3324", and play them from a new game in the background.
+	 * on a board of more than 10 columns the columns are separated, e.g. "10 10 9".
+	 * the board can't be clicked until the replay is over.
+	 * @param movesPerSecond how fast the moves are played, 0 for as fast as possible
+	 */
+	private void startReplay(int movesPerSecond) {
+		TextInputDialog dialog = new TextInputDialog();
+		dialog.setHeaderText("the columns of the moves, from 0 to " + (controller.getCols() - 1));
+		String moves = dialog.showAndWait().orElse("");
+		String[] parts = controller.getCols() > 10 ? moves.trim().split("[^0-9]+")
+				: moves.replaceAll("[^0-9]", "").split("");
+		if (parts.length == 0 || parts[0].isEmpty()) {
+			return;
+		}
+		int[] columns = new int[parts.length];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = Integer.parseInt(parts[i]);
+		}
+		ai.cancel(thinking);
+		thinking = null;
+		stopReplay();
+		tilePane.setOnMouseClicked(null);
+		replay = new Thread(() -> {
+			String error = null;
+			try {
+				controller.replay(columns, movesPerSecond);
+			} catch (Connect4IllegalColumnException | Connect4FullColumnException e) {
+				error = e.getMessage();
+			}
+			String message = error;
+			Platform.runLater(() -> replayDone(message));
+		}, "connect4-replay");
+		replay.setDaemon(true);
+		replay.start();
+	}
+
+	/**
+	 * stopReplay()
+	 * stop the running replay, if any, and wait for its last move.
+	 */
+	private void stopReplay() {
+		Thread running = replay;
+		replay = null;
+		if (running != null) {
+			running.interrupt();
+			try {
+				running.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * replayDone()
+	 * the replay is over, let the user play on from there unless the game is over.
+	 * @param error the reason the replay stopped early, null if it played every move
+	 */
+	private void replayDone(String error) {
+		if (replay == null) {
+			return; // it was stopped by a new game or another replay
+		}
+		replay = null;
+		if (error != null) {
+			new Alert(Alert.AlertType.ERROR, error).showAndWait();
+		}
+		resume();
+	}
+
+	/**
+	 * resume()
+	 * go on from the board as it is, e.g. after a replay or an undo:
+	 * the human's turn, the computer's, or no more moves if the game is over.
+	 */
+	private void resume() {
+		if (controller.isGameOver()) {
+			tilePane.setOnMouseClicked(null);
+			controller.deleteSave();
+		} else if (controller.getModel().isXTurn()) {
+			tilePane.setOnMouseClicked(new MyMouseHandler());
+		} else {
+			CompletableFuture<Connect4MoveMessage> move = ai.submit(controller);
+			thinking = move;
+			move.thenAccept(message -> Platform.runLater(() -> computerMoved(move, message)));
+		}
+	}
+
+	/**
+	 * tieGame()
+	 * tell the user about the tie and end the game.
+	 */
+	private void tieGame() {
+		new Alert(Alert.AlertType.INFORMATION, "tie game!").showAndWait();
+		tilePane.setOnMouseClicked(null);
+		controller.deleteSave();
+	}
+
 	/**
 	 * update()
 	 * view class is the observer so I need the update method to check some update 
 	 * made in the model and show them to the user.
+	 * the change is queued and drawn at the next frame, it may come from the replay thread.
 	 * @param observable the observable class
 	 * @param message the message from the model, which has row, column and color.
 	 */
@@ -202,7 +381,7 @@ public class Connect4View extends Application implements Observer{
 	public void update(Observable observable, Object message) {
 		int row = ((Connect4MoveMessage) message).getRow();
 		int column = ((Connect4MoveMessage) message).getColumn();
-	   	array[row][column].setFill(((Connect4MoveMessage) message).getColor());
+	   	render.set(row, column, ((Connect4MoveMessage) message).getColor());
 	}
 }
 